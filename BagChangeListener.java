@@ -0,0 +1,13 @@
+/** A listener that is told about every entry added to or removed from an ObservableBag.
+    Each call describes a single entry, so a listener can keep derived state current
+    without rescanning the bag. */
+public interface BagChangeListener<T> {
+	
+	/** Called after one entry has been added to the bag.
+	   @param newEntry The entry that was added. */
+	public void entryAdded(T newEntry);
+	
+	/** Called after one occurrence of an entry has been removed from the bag.
+	   @param anEntry The entry that was removed. */
+	public void entryRemoved(T anEntry);
+}
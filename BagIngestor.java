@@ -0,0 +1,564 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** A batching front end for any bag. Many producer threads (including virtual threads) hand their
+    entries to a bounded lock-free queue, and a single drainer thread applies them to the target bag
+    in batches. Duplicate entries within a batch are coalesced, so each distinct entry is added under
+    one acquisition of the target bag's monitor.
+    On the fast path add takes no lock: it claims a queue slot with one compare-and-set and
+    publishes the entry. Producers only wait on a lock when the queue is full under BackPressure.BLOCK.
+    Clients that read the target bag while the ingestor is running should synchronize on the bag.
+    If the target bag throws, the ingestor stops: waiting producers and flushes fail with an
+    IllegalStateException, and the entries that never reached the bag are kept for inspection. */
+public class BagIngestor<T> {
+
+	/** What a producer experiences when the queue is full. */
+	public enum BackPressure {
+		BLOCK,		// Wait until the drainer makes room
+		DROP,		// Discard the entry and return false
+		FAIL		// Throw a QueueFullException
+	}
+
+	/** Thrown by add under BackPressure.FAIL when the queue is full. Unlike the IllegalStateException
+	    thrown by a closed or failed ingestor, the same add may succeed if it is retried later. */
+	public static class QueueFullException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public QueueFullException() {
+			super("Ingestor queue is full.");
+		}
+	}
+
+	/** A queue element that marks a flush. Everything queued before it has been applied once the drainer reaches it. */
+	private static class FlushMarker {
+		boolean done;												// Guarded by progressLock
+		boolean failed;												// Guarded by progressLock
+	}
+
+	/** A bounded multi-producer, single-consumer ring of slots. Each slot carries a sequence number
+	    that says whether it is free for the producer claiming position p (sequence p) or holds the
+	    element published at position p (sequence p + 1). Producers claim positions by a compare-and-set
+	    on tail; only the drainer moves head. Closing sets a bit in tail, so a producer either claims a
+	    slot before the close or sees the bit, and no separate count of producers in flight is needed. */
+	private static class RingQueue {
+		static final int OFFERED = 0;
+		static final int FULL = 1;
+		static final int CLOSED = 2;
+		private static final long CLOSED_BIT = 1L << 62;
+
+		private final Object[] elements;
+		private final AtomicLongArray sequences;
+		private final int capacity;
+		private final AtomicLong tail = new AtomicLong();			// Next position to claim, plus CLOSED_BIT once closed
+		private volatile long head;									// Next position to take. Written only by the drainer
+
+		RingQueue(int capacity) {
+			this.capacity = capacity;
+			elements = new Object[capacity];
+			sequences = new AtomicLongArray(capacity);
+			for(int i = 0; i < capacity; i++)
+				sequences.set(i, i);
+		}
+
+		/** Places an element at the tail if there is a free slot and the queue is open.
+		    @return OFFERED, FULL or CLOSED. */
+		int offer(Object element) {
+			long position = tail.get();
+			while(true) {
+				if((position & CLOSED_BIT) != 0)
+					return CLOSED;
+				int slot = (int) (position % capacity);
+				long sequence = sequences.get(slot);
+				if(sequence == position) {
+					if(tail.compareAndSet(position, position + 1)) {
+						elements[slot] = element;
+						sequences.set(slot, position + 1);			// Publishes the element to the drainer
+						return OFFERED;
+					}
+					position = tail.get();							// Another producer claimed the slot first
+				}
+				else if(sequence < position)
+					return FULL;										// The slot still holds an element from the previous lap
+				else
+					position = tail.get();
+			}
+		}
+
+		/** Takes the element at the head, or returns null if the queue is empty or the head slot is claimed but not yet published.
+		    Only the drainer may call this. */
+		Object poll() {
+			long position = head;
+			int slot = (int) (position % capacity);
+			if(sequences.get(slot) != position + 1)
+				return null;
+			Object element = elements[slot];
+			elements[slot] = null;
+			sequences.set(slot, position + capacity);					// Frees the slot for the next lap
+			head = position + 1;
+			return element;
+		}
+
+		/** Stops further offers. Elements already claimed are still published and can be polled. */
+		void close() {
+			long position = tail.get();
+			while((position & CLOSED_BIT) == 0 && !tail.compareAndSet(position, position | CLOSED_BIT))
+				position = tail.get();
+		}
+
+		boolean isClosed() {
+			return (tail.get() & CLOSED_BIT) != 0;
+		}
+
+		/** Gets the number of positions ever claimed by producers. */
+		long claimed() {
+			return tail.get() & ~CLOSED_BIT;
+		}
+
+		/** Tests whether the queue is closed and every claimed element has been polled, so nothing more can arrive. */
+		boolean isFinished() {
+			long position = tail.get();
+			return (position & CLOSED_BIT) != 0 && (position & ~CLOSED_BIT) == head;
+		}
+
+		int size() {
+			long size = claimed() - head;
+			return (int) Math.max(0, Math.min(size, capacity));
+		}
+	}
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 8192;
+	private static final int DEFAULT_BATCH_SIZE = 512;
+	private static final long POLL_MILLIS = 10;
+
+	private final BagInterface<T> targetBag;
+	private final RingQueue queue;									// Entries of type T and FlushMarkers, in arrival order
+	private final BackPressure backPressure;
+	private final int batchSize;
+	private final Thread drainer;
+
+	private final AtomicLong markerCount = new AtomicLong();		// Queue positions taken by flush markers rather than entries
+	private final AtomicLong droppedCount = new AtomicLong();		// Entries refused under BackPressure.DROP
+	private volatile long peakQueueDepth;							// Sampled by the drainer before each batch
+	private volatile boolean drainerWaiting;						// Set while the drainer parks on an empty queue
+	private long appliedCount;										// Entries added to the target bag. Guarded by progressLock
+	private long batchCount;										// Batches applied to the target bag. Guarded by progressLock
+	private final List<T> unappliedEntries = new ArrayList<T>();	// Accepted entries lost to a failure. Guarded by progressLock
+	private final ReentrantLock progressLock = new ReentrantLock();	// ReentrantLock rather than synchronized so waiting virtual threads do not pin their carrier
+	private final Condition progressMade = progressLock.newCondition();
+	private final Condition roomMade = progressLock.newCondition();	// Signalled after each batch if producers wait for room
+	private final AtomicInteger waitingProducers = new AtomicInteger();	// Only touched when the queue is full
+	private volatile RuntimeException failure;						// Set if the target bag rejected a batch; stops the drainer
+
+	/** One-argument constructor uses the default queue capacity, batch size and blocking back-pressure.
+	    @param targetBag The bag that receives the entries. */
+	public BagIngestor(BagInterface<T> targetBag) {
+		this(targetBag, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, BackPressure.BLOCK);
+	}
+
+	/** Creates an ingestor and starts its drainer thread.
+	    @param targetBag The bag that receives the entries.
+	    @param queueCapacity The maximum number of entries waiting to be applied.
+	    @param batchSize The maximum number of entries applied in one batch.
+	    @param backPressure What add does when the queue is full. */
+	public BagIngestor(BagInterface<T> targetBag, int queueCapacity, int batchSize, BackPressure backPressure) {
+		if(targetBag == null || backPressure == null)
+			throw new IllegalArgumentException("Attempt to create an ingestor without a target bag or back-pressure policy.");
+		if(queueCapacity <= 0 || batchSize <= 0)
+			throw new IllegalStateException("Attempt to create an ingestor whose queue capacity or batch size is not positive.");
+
+		this.targetBag = targetBag;
+		this.queue = new RingQueue(queueCapacity);
+		this.batchSize = batchSize;
+		this.backPressure = backPressure;
+
+		drainer = new Thread(this::drain, "BagIngestor-drainer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/** Queues a new entry for the target bag. Safe to call from any number of threads.
+	    @param newEntry The object to be added as a new entry. Must not be null.
+	    @return True if the entry was queued, or false if it was dropped because the queue was full
+	            or the calling thread was interrupted while waiting for room.
+	    @throws QueueFullException If the queue is full under BackPressure.FAIL; the add may be retried.
+	    @throws IllegalStateException If the ingestor is closed or has failed; no later add can succeed. */
+	public boolean add(T newEntry) {
+		if(newEntry == null)
+			throw new IllegalArgumentException("Attempt to add a null entry to an ingestor.");
+
+		int status = queue.offer(newEntry);
+		if(status == RingQueue.FULL) {
+			switch(backPressure) {
+				case BLOCK:
+					try {
+						status = offerWhenRoom(newEntry, Long.MAX_VALUE);
+					}
+					catch(InterruptedException e) {
+						Thread.currentThread().interrupt();					// Keep the producer's interrupt visible to its caller
+						return false;
+					}
+					break;
+				case DROP:
+					droppedCount.incrementAndGet();
+					return false;
+				default:
+					checkRunning();
+					throw new QueueFullException();
+			}
+		}
+		if(status == RingQueue.CLOSED)
+			checkRunning();
+		wakeDrainer();
+		return true;
+	}
+
+	/** Waits for the drainer to make room and offers the element again, in short slices so a failure is noticed.
+	    @return OFFERED or CLOSED, or FULL if the time ran out first. */
+	private int offerWhenRoom(Object element, long timeoutNanos) throws InterruptedException {
+		boolean forever = (timeoutNanos == Long.MAX_VALUE);
+		long deadline = System.nanoTime() + timeoutNanos;
+		waitingProducers.incrementAndGet();
+		progressLock.lock();
+		try {
+			while(true) {
+				checkFailure();											// The drainer has stopped, so no room will come
+				int status = queue.offer(element);					// Retried under the lock, so a signal after a failed offer is not lost
+				if(status != RingQueue.FULL)
+					return status;
+				long remaining = forever ? Long.MAX_VALUE : deadline - System.nanoTime();
+				if(remaining <= 0)
+					return RingQueue.FULL;
+				roomMade.awaitNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS)));
+			}
+		}
+		finally {
+			progressLock.unlock();
+			waitingProducers.decrementAndGet();
+		}
+	}
+
+	/** Unparks the drainer if it is waiting for entries. */
+	private void wakeDrainer() {
+		if(drainerWaiting)
+			LockSupport.unpark(drainer);
+	}
+
+	/** Waits until every entry accepted before this call has been applied to the target bag.
+	    @throws InterruptedException If the calling thread is interrupted while waiting.
+	    @throws IllegalStateException If the target bag rejected an entry. */
+	public void flush() throws InterruptedException {
+		awaitFlush(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/** Waits a bounded time until every entry accepted before this call has been applied.
+	    @param timeout The maximum time to wait.
+	    @param unit The unit of the timeout.
+	    @return True if the entries were applied, or false if the time ran out first.
+	    @throws InterruptedException If the calling thread is interrupted while waiting.
+	    @throws IllegalStateException If the target bag rejected an entry. */
+	public boolean awaitFlush(long timeout, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(timeout);						// Saturates at Long.MAX_VALUE, which means wait forever
+		boolean forever = (remaining == Long.MAX_VALUE);
+		long deadline = System.nanoTime() + remaining;
+		FlushMarker marker = new FlushMarker();
+
+		checkFailure();
+		markerCount.incrementAndGet();								// Counted before the offer so getAcceptedCount never counts the marker
+		int status = queue.offer(marker);
+		if(status == RingQueue.FULL)
+			status = offerWhenRoom(marker, remaining);
+		if(status != RingQueue.OFFERED)
+			markerCount.decrementAndGet();
+		if(status == RingQueue.FULL)
+			return false;
+		wakeDrainer();
+
+		if(status == RingQueue.CLOSED) {
+			// Nothing more can be queued, so everything is applied once the drainer has finished
+			if(forever)
+				drainer.join();
+			else
+				TimeUnit.NANOSECONDS.timedJoin(drainer, Math.max(deadline - System.nanoTime(), 1));
+			checkFailure();
+			return !drainer.isAlive();
+		}
+
+		progressLock.lock();
+		try {
+			while(!marker.done) {
+				remaining = (forever) ? Long.MAX_VALUE : deadline - System.nanoTime();
+				if(remaining <= 0)
+					return false;
+				progressMade.awaitNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS)));
+			}
+			if(marker.failed)
+				checkFailure();
+			return true;
+		}
+		finally {
+			progressLock.unlock();
+		}
+	}
+
+	/** Stops accepting entries, applies everything already queued and stops the drainer thread.
+	    @throws InterruptedException If the calling thread is interrupted while waiting. */
+	public void close() throws InterruptedException {
+		queue.close();												// Producers that claimed a slot before this still publish their entries
+		LockSupport.unpark(drainer);
+		drainer.join();
+	}
+
+	/** Gets the number of entries waiting to be applied.
+	    @return The current queue depth. */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/** Gets the largest queue depth the drainer has found before a batch since the ingestor was created.
+	    @return The peak queue depth. */
+	public long getPeakQueueDepth() {
+		return peakQueueDepth;
+	}
+
+	/** Gets the number of free slots left in the queue.
+	    @return The remaining queue capacity. */
+	public int getRemainingCapacity() {
+		return queue.capacity - queue.size();
+	}
+
+	/** Gets the number of entries accepted into the queue.
+	    @return The accepted count. */
+	public long getAcceptedCount() {
+		return queue.claimed() - markerCount.get();
+	}
+
+	/** Gets the number of entries dropped because the queue was full.
+	    @return The dropped count. */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/** Gets the number of entries applied to the target bag.
+	    @return The applied count. */
+	public long getAppliedCount() {
+		progressLock.lock();
+		try {
+			return appliedCount;
+		}
+		finally {
+			progressLock.unlock();
+		}
+	}
+
+	/** Gets the number of batches applied to the target bag.
+	    @return The batch count. */
+	public long getBatchCount() {
+		progressLock.lock();
+		try {
+			return batchCount;
+		}
+		finally {
+			progressLock.unlock();
+		}
+	}
+
+	/** Gets the accepted entries that never reached the target bag because it threw.
+	    Empty unless the ingestor has failed; complete once close() has returned.
+	    @return A new list with one element per unapplied entry. */
+	public List<T> getUnappliedEntries() {
+		progressLock.lock();
+		try {
+			return new ArrayList<T>(unappliedEntries);
+		}
+		finally {
+			progressLock.unlock();
+		}
+	}
+
+	/** Throws an exception if the ingestor has been closed or its drainer has failed. */
+	private void checkRunning() {
+		checkFailure();
+		if(queue.isClosed())
+			throw new IllegalStateException("Attempt to add to a closed ingestor.");
+	}
+
+	/** Throws an exception if the target bag rejected a batch. */
+	private void checkFailure() {
+		if(failure != null)
+			throw new IllegalStateException("Ingestor stopped because the target bag rejected an entry.", failure);
+	}
+
+	/** Moves up to max elements from the queue into a list.
+	    @return The number of elements moved. */
+	private int drainTo(List<Object> batch, int max) {
+		int moved = 0;
+		Object element;
+		while(moved < max && (element = queue.poll()) != null) {
+			batch.add(element);
+			moved++;
+		}
+		return moved;
+	}
+
+	/** Parks the drainer until a producer queues something, close() is called or a poll interval passes. */
+	private void awaitEntries() {
+		drainerWaiting = true;
+		if(queue.size() == 0 && !queue.isClosed())					// Checked after raising the flag, so a producer that queued first is not missed
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+		drainerWaiting = false;
+	}
+
+	/** Drainer loop. Runs until the ingestor is closed and every claimed slot has been applied. */
+	private void drain() {
+		ArrayList<Object> batch = new ArrayList<Object>(batchSize);
+		Map<T, Integer> counts = new HashMap<T, Integer>();
+
+		while(!queue.isFinished()) {
+			int depth = queue.size();								// Sampled here so producers never read the queue size
+			if(depth > peakQueueDepth)
+				peakQueueDepth = depth;
+			if(drainTo(batch, batchSize) == 0) {
+				if(queue.isClosed())
+					Thread.onSpinWait();								// A producer claimed a slot before the close and is still publishing
+				else
+					awaitEntries();
+				continue;
+			}
+
+			for(int i = 0; i < batch.size(); i++) {
+				Object element = batch.get(i);
+				if(element instanceof FlushMarker) {
+					// Entries ahead of a marker must land before it is released
+					if(!applyOrFail(counts, batch, i))
+						return;
+					release((FlushMarker) element);
+					continue;
+				}
+				@SuppressWarnings("unchecked")
+				T entry = (T) element;
+				counts.merge(entry, 1, Integer::sum);					// Coalesce duplicates so each distinct entry is handled once per batch
+			}
+			if(!applyOrFail(counts, batch, batch.size()))
+				return;
+
+			progressLock.lock();
+			try {
+				batchCount++;
+				progressMade.signalAll();
+				if(waitingProducers.get() > 0)
+					roomMade.signalAll();
+			}
+			finally {
+				progressLock.unlock();
+			}
+			batch.clear();
+		}
+	}
+
+	/** Tells the flush waiting on a marker that everything queued before it has been applied. */
+	private void release(FlushMarker marker) {
+		progressLock.lock();
+		try {
+			marker.done = true;
+			progressMade.signalAll();
+		}
+		finally {
+			progressLock.unlock();
+		}
+	}
+
+	/** Applies the coalesced counts and clears them. On a failure, records the entries that did not land,
+	    fails every waiting flush and stops the ingestor.
+	    @param batch The current batch, whose elements from index end onwards have not been looked at yet.
+	    @return True if the counts were applied, or false if the ingestor has stopped. */
+	private boolean applyOrFail(Map<T, Integer> counts, List<Object> batch, int end) {
+		if(counts.isEmpty())
+			return true;
+
+		List<T> notApplied = new ArrayList<T>();
+		RuntimeException error = null;
+		int applied;
+		synchronized(targetBag) {
+			applied = 0;
+			for(Map.Entry<T, Integer> entry : counts.entrySet()) {
+				T newEntry = entry.getKey();
+				for(int i = entry.getValue(); i > 0; i--) {
+					if(error == null) {
+						try {
+							targetBag.add(newEntry);
+							applied++;
+							continue;
+						}
+						catch(RuntimeException e) {
+							error = e;
+						}
+					}
+					notApplied.add(newEntry);
+				}
+			}
+		}
+		counts.clear();
+
+		progressLock.lock();
+		try {
+			appliedCount += applied;
+			if(error == null) {
+				progressMade.signalAll();
+				return true;
+			}
+			unappliedEntries.addAll(notApplied);
+			failure = error;
+		}
+		finally {
+			progressLock.unlock();
+		}
+
+		queue.close();
+		discard(batch.subList(end, batch.size()));
+		discardUntilFinished();
+		return false;
+	}
+
+	/** After a failure, discards queued elements until every slot claimed before the close has been published and taken. */
+	private void discardUntilFinished() {
+		List<Object> leftovers = new ArrayList<Object>();
+		while(!queue.isFinished()) {
+			if(drainTo(leftovers, Integer.MAX_VALUE) == 0)
+				Thread.onSpinWait();
+			discard(leftovers);
+			leftovers.clear();
+		}
+	}
+
+	/** Records discarded entries as unapplied and releases discarded flush markers as failed. */
+	private void discard(List<Object> elements) {
+		progressLock.lock();
+		try {
+			for(Object element : elements) {
+				if(element instanceof FlushMarker) {
+					((FlushMarker) element).failed = true;
+					((FlushMarker) element).done = true;
+				}
+				else {
+					@SuppressWarnings("unchecked")
+					T entry = (T) element;
+					unappliedEntries.add(entry);
+				}
+			}
+			progressMade.signalAll();
+			roomMade.signalAll();									// Blocked producers see the failure at once
+		}
+		finally {
+			progressLock.unlock();
+		}
+	}
+}
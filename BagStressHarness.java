@@ -0,0 +1,1432 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/** Randomized differential stress test for every BagInterface implementation.
+    Each implementation runs a long mixed workload at growing sizes. Every result is checked
+    against a HashMap of entry counts. Operations are timed in batches, so timer overhead and
+    single JIT or GC pauses do not dominate, and each subject is first warmed up at its largest
+    size until its timings settle. Every size is run several times and the median kept; a
+    least-squares fit of the median batch latency against size, on log scales, over all sizes
+    gives the growth exponent k in latency ~ n^k. It must not exceed the exponent the
+    implementation is expected to have by more than a tolerance. As a check on the measurement
+    itself, getFrequencyOf on a present entry, which counts across every entry of a scanning bag,
+    is timed on a bag of every size in interleaved rounds. Less the time for a bag holding only
+    that entry, it must fit close to the expected exponent from both sides.
+
+    Usage: java BagStressHarness [seed] [tolerance]
+    To also check IntArrayBag's Vector API kernels, compile vector/VectorIntKernels.java as its
+    header describes and run with java --add-modules jdk.incubator.vector.
+    An exponent of 0 means constant time, 1 linear growth and 2 quadratic growth. The program
+    exits with status 1 on a mismatch or a regression. */
+public class BagStressHarness {
+
+	private static final int[] SIZES = {250, 1000, 4000, 10000};
+	private static final int OPERATIONS_PER_SIZE = 20000;
+	private static final int BATCH_SIZE = 100;							// Operations timed together
+	private static final int MAX_WARM_UP_RUNS = 8;
+	private static final double SETTLED = 0.1;						// Warm-up ends when the median batch latency moves less than this fraction
+	private static final int PROBE_BATCHES = 20;
+	private static final int PROBE_ROUNDS = 5;
+	private static final double PROBE_SANITY = 0.3;					// How far the getFrequencyOf probe may fit from the expected exponent
+	private static final int SET_OPERATION_ROUNDS = 3;
+	private static final int REPETITIONS = 3;							// Runs per size; the median is kept
+	private static final double DEFAULT_TOLERANCE = 0.5;				// How far a fitted exponent may exceed the expected one
+
+	/** An implementation under test, the largest number of entries it promises to hold, and how its
+	    scalar and set operations are expected to grow with the number of entries. */
+	private static class Subject {
+		final String name;
+		final Supplier<BagInterface<Integer>> factory;
+		final int maxEntries;
+		final double scalarExponent;
+		final double setExponent;
+		final boolean acceptsOtherBagTypes;								// False if the set operations need an operand of the same class
+
+		Subject(String name, Supplier<BagInterface<Integer>> factory, int maxEntries, double scalarExponent, double setExponent) {
+			this(name, factory, maxEntries, scalarExponent, setExponent, true);
+		}
+
+		Subject(String name, Supplier<BagInterface<Integer>> factory, int maxEntries, double scalarExponent, double setExponent,
+				boolean acceptsOtherBagTypes) {
+			this.name = name;
+			this.factory = factory;
+			this.maxEntries = maxEntries;
+			this.scalarExponent = scalarExponent;
+			this.setExponent = setExponent;
+			this.acceptsOtherBagTypes = acceptsOtherBagTypes;
+		}
+	}
+
+	/** Timings for one implementation at one size. Scalar latencies are per operation, averaged within each batch. */
+	private static class Measurement {
+		int size;
+		double meanScalarNanos;
+		double p50ScalarNanos;
+		double p99ScalarNanos;
+		double scalarOpsPerMilli;
+		double meanSetMillis;
+	}
+
+	/** The kinds of operation in the mixed workload. */
+	private static final int ADD = 0, REMOVE_VALUE = 1, REMOVE_ANY = 2, FREQUENCY = 3, CONTAINS = 4;
+
+	public static void main(String[] args) {
+		long seed = (args.length > 0) ? Long.parseLong(args[0]) : 42L;
+		double tolerance = (args.length > 1) ? Double.parseDouble(args[1]) : DEFAULT_TOLERANCE;
+
+		// Scalar operations scan the entries (n^1) except in the hashed EvictingBag (n^0); set operations
+		// are O(n * m) contains/remove passes in the reference bags (n^2) and O(n) or O(n log n) elsewhere
+		List<Subject> subjects = new ArrayList<Subject>();
+		subjects.add(new Subject("LinkedBag", () -> new LinkedBag<Integer>(), Integer.MAX_VALUE, 1, 2, false));
+		subjects.add(new Subject("ResizeableArrayBag", () -> new ResizeableArrayBag<Integer>(), 10000, 1, 2));
+		subjects.add(new Subject("ResizeableArrayBag(cached hashes)", () -> new ResizeableArrayBag<Integer>(25, true), 10000, 1, 2));
+		subjects.add(new Subject("IntArrayBag", () -> new IntArrayBag(), Integer.MAX_VALUE, 1, 1));
+		for(EvictingBag.Policy policy : EvictingBag.Policy.values())				// Limits high enough that nothing is evicted
+			subjects.add(new Subject("EvictingBag(" + policy + ")", () -> new EvictingBag<Integer>(Integer.MAX_VALUE, policy), Integer.MAX_VALUE, 0, 1));
+		subjects.add(new Subject("CompactBag", () -> new CompactBag<Integer>(), Integer.MAX_VALUE, 1, 1));
+		subjects.add(new Subject("OffHeapBag(INTS)", () -> new OffHeapBag<Integer>(OffHeapBag.INTS), Integer.MAX_VALUE, 1, 1));
+		subjects.add(new Subject("ObservableBag(LinkedBag)", () -> new ObservableBag<Integer>(new LinkedBag<Integer>()), Integer.MAX_VALUE, 1, 2, false));
+
+		System.out.print("======================== BAG STRESS HARNESS ========================\n\n");
+		System.out.println("seed=" + seed + " tolerance=" + tolerance + "\n");
+
+		boolean failed = false;
+		for(Subject subject : subjects) {
+			try {
+				failed |= !runSubject(subject, seed, tolerance);
+			}
+			catch(RuntimeException | AssertionError e) {
+				System.out.println("FAIL " + subject.name + ": " + e);
+				failed = true;
+			}
+			System.out.println("---------------------------------------------------------------");
+		}
+
+		failed |= !runCheck("Cached hashes with Strings", () -> checkCachedHashStrings(new Random(seed)));
+		failed |= !runCheck("Mixed bag types", () -> checkMixedOperands(subjects, new Random(seed)));
+		failed |= !runCheck("IntArrayBag edge cases", () -> checkIntArrayBagEdges(new Random(seed)));
+		failed |= !runCheck("IntArrayBag kernels", () -> checkIntKernels(new Random(seed)));
+		failed |= !runCheck("Bounded EvictingBag", () -> checkBoundedEvictingBags(new Random(seed)));
+		failed |= !runCheck("CompactBag round trip", () -> checkCompactBagRoundTrip(new Random(seed)));
+		failed |= !runCheck("OffHeapBag layouts", () -> checkOffHeapBags(new Random(seed)));
+		failed |= !runCheck("MaterializedSetView", () -> checkMaterializedViews(new Random(seed)));
+		failed |= !runCheck("BagIngestor", () -> checkIngestor(new Random(seed)));
+
+		System.out.println(failed ? "STRESS HARNESS FAILED" : "STRESS HARNESS PASSED");
+		if(failed)
+			System.exit(1);
+	}
+
+	/** A check that can be interrupted while it waits for other threads. */
+	private interface Check {
+		void run() throws InterruptedException;
+	}
+
+	/** Runs one named check and reports a failure instead of stopping the harness.
+	    @return True if the check passed. */
+	private static boolean runCheck(String name, Check check) {
+		boolean passed = true;
+		try {
+			check.run();
+		}
+		catch(RuntimeException | AssertionError | InterruptedException e) {
+			System.out.println("FAIL " + name + ": " + e);
+			passed = false;
+		}
+		System.out.println("---------------------------------------------------------------");
+		return passed;
+	}
+
+	/** Runs every size that fits the subject, prints its scaling curve and checks the thresholds.
+	    @return True if the subject passed. */
+	private static boolean runSubject(Subject subject, long seed, double tolerance) {
+		System.out.println(subject.name);
+		if(subject.maxEntries != Integer.MAX_VALUE)
+			checkCapacityLimit(subject);
+		checkEmptyOperands(subject, new Random(seed));
+
+		List<Integer> sizesToRun = new ArrayList<Integer>();
+		for(int size : SIZES)
+			// A union holds about 1.5 * size entries, so stay under the subject's promised maximum
+			if(size + size / 2 + OPERATIONS_PER_SIZE / 10 <= subject.maxEntries)
+				sizesToRun.add(size);
+
+		// Warm up at the largest size, where the hot paths run longest, until the timings stop moving
+		int largest = sizesToRun.get(sizesToRun.size() - 1);
+		double previous = runWorkload(subject, largest, new Random(seed - 1)).p50ScalarNanos;
+		int warmUpRuns = 1;
+		while(warmUpRuns < MAX_WARM_UP_RUNS) {
+			double latest = runWorkload(subject, largest, new Random(seed - 1 - warmUpRuns)).p50ScalarNanos;
+			warmUpRuns++;
+			boolean settled = Math.abs(latest - previous) <= SETTLED * previous;
+			previous = latest;
+			if(settled)
+				break;
+		}
+		System.out.println("  warmed up with " + warmUpRuns + " runs at n=" + largest);
+
+		List<Measurement> curve = new ArrayList<Measurement>();
+		for(int size : sizesToRun) {
+			List<Measurement> runs = new ArrayList<Measurement>();
+			for(int run = 0; run < REPETITIONS; run++)
+				runs.add(runWorkload(subject, size, new Random(seed + size + run)));
+			Measurement m = median(runs);
+			curve.add(m);
+			System.out.printf("  n=%-6d %10.1f ops/ms  mean %8.0f ns  p50 %8.0f ns  p99 %8.0f ns  set op %8.2f ms%n",
+							  m.size, m.scalarOpsPerMilli, m.meanScalarNanos, m.p50ScalarNanos, m.p99ScalarNanos, m.meanSetMillis);
+		}
+		double[] probeTimes = timeProbes(subject, sizesToRun, new Random(seed));
+		System.out.printf("  getFrequencyOf probe: %.0f ns at n=1", probeTimes[0]);
+		double[] probeNanos = new double[sizesToRun.size()];
+		for(int i = 0; i < probeNanos.length; i++) {
+			System.out.printf(", %.0f ns at n=%d", probeTimes[i + 1], sizesToRun.get(i));
+			// The call overhead would flatten the curve of a scanning bag, so only its scan is fitted
+			probeNanos[i] = (subject.scalarExponent > 0) ? Math.max(probeTimes[i + 1] - probeTimes[0], 1) : probeTimes[i + 1];
+		}
+		System.out.println();
+
+		if(curve.size() < 2)
+			return true;
+
+		double[] sizes = new double[curve.size()];
+		double[] scalarLatencies = new double[curve.size()];
+		double[] setLatencies = new double[curve.size()];
+		for(int i = 0; i < curve.size(); i++) {
+			sizes[i] = curve.get(i).size;
+			scalarLatencies[i] = curve.get(i).p50ScalarNanos;
+			setLatencies[i] = curve.get(i).meanSetMillis;
+		}
+		double scalarExponent = growthExponent(sizes, scalarLatencies);
+		double setExponent = growthExponent(sizes, setLatencies);
+		double probeExponent = growthExponent(sizes, probeNanos);
+		System.out.printf("  scaling over %d sizes: scalar ops ~ n^%.2f (expected n^%.0f), set ops ~ n^%.2f (expected n^%.0f), getFrequencyOf probe ~ n^%.2f%n",
+						  curve.size(), scalarExponent, subject.scalarExponent, setExponent, subject.setExponent, probeExponent);
+
+		boolean passed = true;
+		if(scalarExponent > subject.scalarExponent + tolerance) {
+			System.out.printf("FAIL %s: scalar operations scale as n^%.2f, limit is n^%.2f%n", subject.name, scalarExponent, subject.scalarExponent + tolerance);
+			passed = false;
+		}
+		if(setExponent > subject.setExponent + tolerance) {
+			System.out.printf("FAIL %s: set operations scale as n^%.2f, limit is n^%.2f%n", subject.name, setExponent, subject.setExponent + tolerance);
+			passed = false;
+		}
+		if(Math.abs(probeExponent - subject.scalarExponent) > PROBE_SANITY) {
+			System.out.printf("FAIL %s: the getFrequencyOf probe should scale as n^%.0f but measured n^%.2f; the timings do not track cost%n",
+							  subject.name, subject.scalarExponent, probeExponent);
+			passed = false;
+		}
+		return passed;
+	}
+
+	/** Fills a bag to its promised maximum and checks that one more entry is refused with an IllegalStateException. */
+	private static void checkCapacityLimit(Subject subject) {
+		BagInterface<Integer> bag = subject.factory.get();
+		for(int i = 0; i < subject.maxEntries; i++)
+			check(bag.add(i), "add refused entry " + (i + 1) + " of a promised " + subject.maxEntries);
+
+		boolean refused = false;
+		try {
+			bag.add(subject.maxEntries);
+		}
+		catch(IllegalStateException e) {
+			refused = true;
+		}
+		check(refused, "add beyond the promised maximum of " + subject.maxEntries + " was not refused");
+		check(bag.getCurrentSize() == subject.maxEntries, "size changed after a refused add");
+		System.out.println("  capacity limit of " + subject.maxEntries + " entries holds");
+	}
+
+	/** Checks the set operations when one or both operands are empty. */
+	private static void checkEmptyOperands(Subject subject, Random random) {
+		BagInterface<Integer> empty = subject.factory.get();
+		Map<Integer, Integer> emptyModel = new HashMap<Integer, Integer>();
+		runSetOperations(subject, empty, emptyModel, 0, 10, random);
+		runSetOperations(subject, empty, emptyModel, 20, 10, random);
+
+		BagInterface<Integer> filled = subject.factory.get();
+		Map<Integer, Integer> filledModel = new HashMap<Integer, Integer>();
+		for(int i = 0; i < 20; i++) {
+			Integer value = random.nextInt(10);
+			filled.add(value);
+			addTo(filledModel, value, 1);
+		}
+		runSetOperations(subject, filled, filledModel, 0, 10, random);
+		System.out.println("  set operations with empty operands hold");
+	}
+
+	/** Times getFrequencyOf, whose cost is known: a scanning bag counts across every entry.
+	    A bag of every size is built first and the sizes are probed in interleaved rounds, so a JIT
+	    recompilation or GC pause cannot land on one size alone. After a warm-up the fastest batch
+	    per size is kept.
+	    @return Nanoseconds per call at each size, preceded by the time for a bag holding only the probe. */
+	private static double[] timeProbes(Subject subject, List<Integer> sizes, Random random) {
+		Integer probe = 0;
+		List<Integer> probeSizes = new ArrayList<Integer>(sizes);
+		probeSizes.add(0, 1);
+		List<BagInterface<Integer>> bags = new ArrayList<BagInterface<Integer>>();
+		int[] expectedCounts = new int[probeSizes.size()];
+		for(int i = 0; i < probeSizes.size(); i++) {
+			int size = probeSizes.get(i);
+			int valueRange = Math.max(size / 4, 1);
+			BagInterface<Integer> bag = subject.factory.get();
+			bag.add(probe);													// Present, so a bag cannot answer from a dictionary miss
+			expectedCounts[i] = 1;
+			for(int j = 1; j < size; j++) {
+				int value = random.nextInt(valueRange);
+				bag.add(value);
+				if(value == probe)
+					expectedCounts[i]++;
+			}
+			bags.add(bag);
+		}
+
+		// Warm up like the workload: the largest bag's time must settle before any round counts
+		int largest = bags.size() - 1;
+		double previous = probeRound(bags, probe, expectedCounts)[largest];
+		for(int run = 1; run < MAX_WARM_UP_RUNS; run++) {
+			double latest = probeRound(bags, probe, expectedCounts)[largest];
+			boolean settled = Math.abs(latest - previous) <= SETTLED * previous;
+			previous = latest;
+			if(settled)
+				break;
+		}
+
+		double[] fastest = probeRound(bags, probe, expectedCounts);
+		for(int round = 1; round < PROBE_ROUNDS; round++) {
+			double[] latest = probeRound(bags, probe, expectedCounts);
+			for(int i = 0; i < fastest.length; i++)
+				fastest[i] = Math.min(fastest[i], latest[i]);
+		}
+		return fastest;
+	}
+
+	/** Probes every bag in turn.
+	    @return The fastest batch for each bag, in nanoseconds per call. */
+	private static double[] probeRound(List<BagInterface<Integer>> bags, Integer probe, int[] expectedCounts) {
+		double[] fastest = new double[bags.size()];
+		for(int i = 0; i < bags.size(); i++) {
+			BagInterface<Integer> bag = bags.get(i);
+			fastest[i] = Double.MAX_VALUE;
+			for(int batch = 0; batch < PROBE_BATCHES; batch++) {
+				boolean correct = true;
+				long start = System.nanoTime();
+				for(int k = 0; k < BATCH_SIZE; k++)
+					correct &= (bag.getFrequencyOf(probe) == expectedCounts[i]);
+				fastest[i] = Math.min(fastest[i], (double) (System.nanoTime() - start) / BATCH_SIZE);
+				check(correct, "getFrequencyOf(" + probe + ") did not return " + expectedCounts[i]);
+			}
+		}
+		return fastest;
+	}
+
+	/** Fills a bag to size entries, then runs a timed mixed workload checked against a reference model. */
+	private static Measurement runWorkload(Subject subject, int size, Random random) {
+		int valueRange = Math.max(size / 4, 1);							// Keep plenty of duplicate entries
+		BagInterface<Integer> bag = subject.factory.get();
+		Map<Integer, Integer> model = new HashMap<Integer, Integer>();
+		int modelSize = size;											// Running total of the counts in model
+
+		for(int i = 0; i < size; i++) {
+			Integer value = random.nextInt(valueRange);
+			check(bag.add(value), "add returned false");
+			addTo(model, value, 1);
+		}
+		checkSameContents(bag, model, "after initial fill");
+
+		int batches = OPERATIONS_PER_SIZE / BATCH_SIZE;
+		double[] batchLatencies = new double[batches];						// Nanoseconds per operation in each batch
+		long totalNanos = 0;
+		int[] kinds = new int[BATCH_SIZE];
+		Integer[] values = new Integer[BATCH_SIZE];
+		boolean[] flags = new boolean[BATCH_SIZE];
+		int[] frequencies = new int[BATCH_SIZE];
+		Integer[] removed = new Integer[BATCH_SIZE];
+		for(int batch = 0; batch < batches; batch++) {
+			for(int k = 0; k < BATCH_SIZE; k++) {
+				values[k] = random.nextInt(valueRange + valueRange / 10 + 1);	// Some values are never present
+				int choice = random.nextInt(100);
+				kinds[k] = (choice < 30) ? ADD : (choice < 55) ? REMOVE_VALUE : (choice < 60) ? REMOVE_ANY : (choice < 80) ? FREQUENCY : CONTAINS;
+			}
+
+			// Only the bag's own work is inside the timed loop; the results are checked afterwards
+			long start = System.nanoTime();
+			for(int k = 0; k < BATCH_SIZE; k++) {
+				switch(kinds[k]) {
+					case ADD:			flags[k] = bag.add(values[k]); break;
+					case REMOVE_VALUE:	flags[k] = bag.remove(values[k]); break;
+					case REMOVE_ANY:	removed[k] = bag.remove(); break;
+					case FREQUENCY:		frequencies[k] = bag.getFrequencyOf(values[k]); break;
+					default:			flags[k] = bag.contains(values[k]); break;
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			totalNanos += elapsed;
+			batchLatencies[batch] = (double) elapsed / BATCH_SIZE;
+
+			// Replay the batch against the model in order
+			for(int k = 0; k < BATCH_SIZE; k++) {
+				Integer value = values[k];
+				switch(kinds[k]) {
+					case ADD:
+						check(flags[k], "add returned false");
+						addTo(model, value, 1);
+						modelSize++;
+						break;
+					case REMOVE_VALUE:
+						check(flags[k] == (count(model, value) > 0), "remove(" + value + ") returned " + flags[k]);
+						if(flags[k]) {
+							addTo(model, value, -1);
+							modelSize--;
+						}
+						break;
+					case REMOVE_ANY:
+						if(removed[k] == null)
+							check(model.isEmpty(), "remove() returned null from a non-empty bag");
+						else {
+							check(count(model, removed[k]) > 0, "remove() returned " + removed[k] + ", which was not in the bag");
+							addTo(model, removed[k], -1);
+							modelSize--;
+						}
+						break;
+					case FREQUENCY:
+						check(frequencies[k] == count(model, value), "getFrequencyOf(" + value + ") returned " + frequencies[k] + ", expected " + count(model, value));
+						break;
+					default:
+						check(flags[k] == (count(model, value) > 0), "contains(" + value + ") returned " + flags[k]);
+						break;
+				}
+			}
+			check(bag.getCurrentSize() == modelSize, "getCurrentSize() returned " + bag.getCurrentSize() + ", expected " + modelSize);
+			check(bag.isEmpty() == model.isEmpty(), "isEmpty() disagrees with the reference model");
+		}
+		checkSameContents(bag, model, "after mixed workload");
+
+		double[] setMillis = new double[SET_OPERATION_ROUNDS];
+		for(int round = 0; round < SET_OPERATION_ROUNDS; round++)
+			setMillis[round] = runSetOperations(subject, bag, model, size / 2, valueRange, random) / 1e6 / 4;
+		Arrays.sort(setMillis);
+
+		Arrays.sort(batchLatencies);
+		Measurement m = new Measurement();
+		m.size = size;
+		m.meanScalarNanos = (double) totalNanos / (batches * BATCH_SIZE);
+		m.p50ScalarNanos = batchLatencies[batches / 2];
+		m.p99ScalarNanos = batchLatencies[(int) (batches * 0.99)];
+		m.scalarOpsPerMilli = batches * BATCH_SIZE / (totalNanos / 1e6);
+		m.meanSetMillis = setMillis[SET_OPERATION_ROUNDS / 2];				// Median round
+		return m;
+	}
+
+	/** Times union, intersection and both differences against a fresh second bag and checks each result.
+	    @return The total time spent in the four operations, in nanoseconds. */
+	private static long runSetOperations(Subject subject, BagInterface<Integer> bag, Map<Integer, Integer> model,
+										 int otherSize, int valueRange, Random random) {
+		BagInterface<Integer> other = subject.factory.get();
+		Map<Integer, Integer> otherModel = new HashMap<Integer, Integer>();
+		for(int i = 0; i < otherSize; i++) {
+			Integer value = random.nextInt(valueRange);
+			other.add(value);
+			addTo(otherModel, value, 1);
+		}
+
+		Map<Integer, Integer> expectedUnion = new HashMap<Integer, Integer>(model);
+		Map<Integer, Integer> expectedIntersection = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> expectedDifference = new HashMap<Integer, Integer>(model);
+		for(Map.Entry<Integer, Integer> entry : otherModel.entrySet()) {
+			Integer value = entry.getKey();
+			int otherCount = entry.getValue();
+			addTo(expectedUnion, value, otherCount);
+			addTo(expectedIntersection, value, Math.min(count(model, value), otherCount));
+			addTo(expectedDifference, value, -Math.min(count(model, value), otherCount));
+		}
+		Map<Integer, Integer> expectedReverse = new HashMap<Integer, Integer>(otherModel);
+		for(Map.Entry<Integer, Integer> entry : model.entrySet())
+			addTo(expectedReverse, entry.getKey(), -Math.min(count(otherModel, entry.getKey()), entry.getValue()));
+
+		long start = System.nanoTime();
+		BagInterface<Integer> union = bag.union(other);
+		long elapsed = System.nanoTime() - start;
+		checkSameContents(union, expectedUnion, "union");
+
+		start = System.nanoTime();
+		BagInterface<Integer> intersection = bag.intersection(other);
+		elapsed += System.nanoTime() - start;
+		checkSameContents(intersection, expectedIntersection, "intersection");
+
+		start = System.nanoTime();
+		BagInterface<Integer> difference = bag.difference(other);
+		elapsed += System.nanoTime() - start;
+		checkSameContents(difference, expectedDifference, "difference");
+
+		start = System.nanoTime();
+		BagInterface<Integer> reverse = other.difference(bag);
+		elapsed += System.nanoTime() - start;
+		checkSameContents(reverse, expectedReverse, "reverse difference");
+
+		// The operands must be unchanged
+		checkSameContents(bag, model, "first operand after set operations");
+		checkSameContents(other, otherModel, "second operand after set operations");
+		return elapsed;
+	}
+
+	/** Checks views over plain bags, then over bounded EvictingBags whose evictions must reach the views too. */
+	private static void checkMaterializedViews(Random random) {
+		System.out.println("MaterializedSetView");
+		checkViewsOf(new ObservableBag<Integer>(new LinkedBag<Integer>()), new ObservableBag<Integer>(new LinkedBag<Integer>()), random);
+		System.out.println("  views of LinkedBags match recomputed set operations after " + OPERATIONS_PER_SIZE + " changes");
+		for(EvictingBag.Policy policy : EvictingBag.Policy.values()) {
+			EvictingBag<Integer> firstBag = new EvictingBag<Integer>(20, 60, policy);
+			EvictingBag<Integer> secondBag = new EvictingBag<Integer>(20, 60, policy);
+			checkViewsOf(new ObservableBag<Integer>(firstBag), new ObservableBag<Integer>(secondBag), random);
+			System.out.println("  views of " + policy + " EvictingBags match after " + (firstBag.getEvictionCount() + secondBag.getEvictionCount()) + " evictions");
+		}
+	}
+
+	/** Changes two observable bags at random and checks that views of their union, intersection and
+	    differences always hold what the same set operations compute on LinkedBag copies of the operands. */
+	private static void checkViewsOf(ObservableBag<Integer> first, ObservableBag<Integer> second, Random random) {
+		for(int i = 0; i < 200; i++) {
+			first.add(random.nextInt(50));
+			second.add(random.nextInt(50));
+		}
+
+		MaterializedSetView<Integer> union = new MaterializedSetView<Integer>(first, second, MaterializedSetView.Operation.UNION);
+		MaterializedSetView<Integer> intersection = new MaterializedSetView<Integer>(first, second, MaterializedSetView.Operation.INTERSECTION);
+		MaterializedSetView<Integer> difference = new MaterializedSetView<Integer>(first, second, MaterializedSetView.Operation.DIFFERENCE);
+		MaterializedSetView<Integer> reverse = new MaterializedSetView<Integer>(second, first, MaterializedSetView.Operation.DIFFERENCE);
+
+		for(int op = 0; op < OPERATIONS_PER_SIZE; op++) {
+			ObservableBag<Integer> target = random.nextBoolean() ? first : second;
+			int choice = random.nextInt(100);
+			if(choice < 50)
+				target.add(random.nextInt(50));
+			else if(choice < 90)
+				target.remove(random.nextInt(50));
+			else if(choice < 99)
+				target.remove();
+			else
+				target.clear();
+
+			if(op % 500 == 0) {
+				BagInterface<Integer> firstCopy = linkedCopyOf(first);
+				BagInterface<Integer> secondCopy = linkedCopyOf(second);
+				checkSameContents(union, countsOf(firstCopy.union(secondCopy)), "union view");
+				checkSameContents(intersection, countsOf(firstCopy.intersection(secondCopy)), "intersection view");
+				checkSameContents(difference, countsOf(firstCopy.difference(secondCopy)), "difference view");
+				checkSameContents(reverse, countsOf(secondCopy.difference(firstCopy)), "reverse difference view");
+			}
+		}
+	}
+
+	/** Copies a bag's entries into a LinkedBag, whose set operations never drop entries. */
+	private static BagInterface<Integer> linkedCopyOf(BagInterface<Integer> aBag) {
+		BagInterface<Integer> copy = new LinkedBag<Integer>();
+		Object[] entries = aBag.toArray();
+		for(Object entry : entries)
+			copy.add((Integer) entry);
+		return copy;
+	}
+
+	/** Checks BagIngestor with many producers under each back-pressure policy, racing close() against
+	    producers, and a target bag that starts throwing. */
+	private static void checkIngestor(Random random) throws InterruptedException {
+		System.out.println("BagIngestor");
+		for(BagIngestor.BackPressure mode : BagIngestor.BackPressure.values())
+			checkIngestorProducers(mode);
+		checkIngestorCloseRace(random);
+		checkIngestorFailure();
+		compareIngestorWithSynchronizedAdds();
+	}
+
+	/** Times producers adding to a shared bag under its monitor against the same producers adding
+	    through an ingestor, including the time to apply every entry. Printed, not checked: the result
+	    depends on the number of cores, and on one core there is no contention for the ingestor to remove. */
+	private static void compareIngestorWithSynchronizedAdds() throws InterruptedException {
+		final int producers = 8;
+		final int addsPerProducer = 200000;
+		for(int round = 0; round < 3; round++) {							// The first rounds warm up the JIT; the last is printed
+			LinkedBag<Integer> lockedBag = new LinkedBag<Integer>();
+			long start = System.nanoTime();
+			runProducers(producers, addsPerProducer, value -> {
+				synchronized(lockedBag) {
+					lockedBag.add(value);
+				}
+			});
+			long lockedNanos = System.nanoTime() - start;
+
+			LinkedBag<Integer> ingestedBag = new LinkedBag<Integer>();
+			BagIngestor<Integer> ingestor = new BagIngestor<Integer>(ingestedBag);
+			start = System.nanoTime();
+			runProducers(producers, addsPerProducer, value -> ingestor.add(value));
+			long producerNanos = System.nanoTime() - start;
+			ingestor.close();
+			long ingestedNanos = System.nanoTime() - start;
+
+			check(lockedBag.getCurrentSize() == ingestedBag.getCurrentSize(), "the ingestor applied a different number of entries");
+			if(round == 2)
+				System.out.printf("  %d producers x %d adds on %d cores: synchronized %.1f adds/us; ingestor %.1f adds/us to queue, %.1f adds/us applied%n",
+								  producers, addsPerProducer, Runtime.getRuntime().availableProcessors(),
+								  producers * (double) addsPerProducer / (lockedNanos / 1e3),
+								  producers * (double) addsPerProducer / (producerNanos / 1e3),
+								  producers * (double) addsPerProducer / (ingestedNanos / 1e3));
+		}
+	}
+
+	/** Starts producers that each pass addsPerProducer values to add, and waits for all of them. */
+	private static void runProducers(int producers, int addsPerProducer, java.util.function.IntConsumer add) throws InterruptedException {
+		Thread[] threads = new Thread[producers];
+		for(int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread(() -> {
+				for(int i = 0; i < addsPerProducer; i++)
+					add.accept((producer * 7919 + i) % 1000);
+			});
+			threads[p].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+	}
+
+	/** Eight producers add coalescable values; every so often each one adds a unique probe, flushes and
+	    checks that its own probe has reached the bag. The bag must end up with exactly the accepted entries. */
+	private static void checkIngestorProducers(BagIngestor.BackPressure mode) throws InterruptedException {
+		final int producers = 8;
+		final int addsPerProducer = 2000;
+		LinkedBag<Integer> target = new LinkedBag<Integer>();
+		BagIngestor<Integer> ingestor = new BagIngestor<Integer>(target, 64, 16, mode);
+		List<Map<Integer, Integer>> acceptedByProducer = new ArrayList<Map<Integer, Integer>>();
+		List<String> problems = java.util.Collections.synchronizedList(new ArrayList<String>());
+		long[] refused = new long[producers];
+
+		Thread[] threads = new Thread[producers];
+		for(int p = 0; p < producers; p++) {
+			Map<Integer, Integer> accepted = new HashMap<Integer, Integer>();
+			acceptedByProducer.add(accepted);
+			final int producer = p;
+			threads[p] = new Thread(() -> {
+				try {
+					for(int i = 0; i < addsPerProducer; i++) {
+						boolean isProbe = (i % 500 == 499);
+						Integer value = isProbe ? producer * 100000 + 50000 + i : producer * 100000 + i % 50;
+						boolean queued;
+						try {
+							queued = ingestor.add(value);
+						}
+						catch(BagIngestor.QueueFullException e) {
+							queued = false;									// BackPressure.FAIL with a full queue; a closed ingestor would throw IllegalStateException
+						}
+						if(!queued) {
+							refused[producer]++;
+							continue;
+						}
+						addTo(accepted, value, 1);
+						if(isProbe) {
+							ingestor.flush();
+							synchronized(target) {
+								if(!target.contains(value))
+									problems.add("flush returned before probe " + value + " was applied");
+							}
+						}
+					}
+				}
+				catch(InterruptedException | RuntimeException e) {
+					problems.add(e.toString());
+				}
+			});
+			threads[p].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+		ingestor.close();
+
+		check(problems.isEmpty(), mode + ": " + problems);
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		long totalRefused = 0;
+		for(int p = 0; p < producers; p++) {
+			for(Map.Entry<Integer, Integer> entry : acceptedByProducer.get(p).entrySet())
+				addTo(expected, entry.getKey(), entry.getValue());
+			totalRefused += refused[p];
+		}
+		check(ingestor.getAcceptedCount() + totalRefused == (long) producers * addsPerProducer, mode + ": accepted and refused entries do not add up");
+		check(ingestor.getAppliedCount() == ingestor.getAcceptedCount(), mode + ": applied " + ingestor.getAppliedCount() + " of " + ingestor.getAcceptedCount() + " accepted entries");
+		if(mode == BagIngestor.BackPressure.DROP)
+			check(ingestor.getDroppedCount() == totalRefused, mode + ": dropped count " + ingestor.getDroppedCount() + ", expected " + totalRefused);
+		checkSameContents(target, expected, mode + " target after close");
+		check(ingestor.getQueueDepth() == 0 && ingestor.getPeakQueueDepth() <= 64, mode + ": queue depth metrics out of range");
+
+		boolean refusedAfterClose = false;
+		try {
+			ingestor.add(1);
+		}
+		catch(IllegalStateException e) {
+			refusedAfterClose = true;
+		}
+		check(refusedAfterClose, mode + ": add after close was accepted");
+		ingestor.flush();												// Must return at once after close
+		System.out.println("  BackPressure." + mode + ": " + ingestor.getAcceptedCount() + " accepted, " + totalRefused + " refused, "
+						   + ingestor.getBatchCount() + " batches, flushes saw their own entries");
+	}
+
+	/** Closes the ingestor while producers are still adding; every accepted entry must still be applied. */
+	private static void checkIngestorCloseRace(Random random) throws InterruptedException {
+		final int trials = 200;
+		for(int trial = 0; trial < trials; trial++) {
+			LinkedBag<Integer> target = new LinkedBag<Integer>();
+			BagIngestor<Integer> ingestor = new BagIngestor<Integer>(target, 16, 8, BagIngestor.BackPressure.DROP);
+			Thread[] threads = new Thread[4];
+			for(int p = 0; p < threads.length; p++) {
+				threads[p] = new Thread(() -> {
+					try {
+						for(int i = 0; ; i++)
+							ingestor.add(i % 10);
+					}
+					catch(IllegalStateException e) {
+						// Closed
+					}
+				});
+				threads[p].start();
+			}
+			Thread.sleep(random.nextInt(2));
+			ingestor.close();
+			for(Thread thread : threads)
+				thread.join();
+
+			check(ingestor.getAppliedCount() == ingestor.getAcceptedCount(),
+				  "close race trial " + trial + ": applied " + ingestor.getAppliedCount() + " of " + ingestor.getAcceptedCount() + " accepted entries");
+			check(target.getCurrentSize() == ingestor.getAcceptedCount(), "close race trial " + trial + ": target size differs from accepted count");
+		}
+		System.out.println("  close raced against producers " + trials + " times without losing an accepted entry");
+	}
+
+	/** A target bag that fills up part way through must fail blocked producers and flushes, and account
+	    for every accepted entry as either applied or unapplied. */
+	private static void checkIngestorFailure() throws InterruptedException {
+		final int room = 10;
+		ResizeableArrayBag<Integer> target = new ResizeableArrayBag<Integer>();
+		for(int i = 0; i < 10000 - room; i++)
+			target.add(-1);
+		BagIngestor<Integer> ingestor = new BagIngestor<Integer>(target, 4, 2, BagIngestor.BackPressure.BLOCK);
+
+		boolean[] producerFailed = new boolean[1];
+		Thread producer = new Thread(() -> {
+			try {
+				for(int i = 0; i < 200; i++)
+					ingestor.add(i);
+			}
+			catch(IllegalStateException e) {
+				producerFailed[0] = true;
+			}
+		});
+		producer.start();
+		producer.join(5000);
+		check(!producer.isAlive(), "a producer blocked on a failed ingestor was never released");
+		check(producerFailed[0], "a producer blocked on a failed ingestor returned normally");
+
+		boolean flushFailed = false;
+		try {
+			ingestor.flush();
+		}
+		catch(IllegalStateException e) {
+			flushFailed = true;
+		}
+		check(flushFailed, "flush on a failed ingestor returned normally");
+		ingestor.close();
+
+		long applied = ingestor.getAppliedCount();
+		check(applied == room, "applied " + applied + " entries to a bag with room for " + room);
+		check(applied + ingestor.getUnappliedEntries().size() == ingestor.getAcceptedCount(),
+			  "applied " + applied + " + unapplied " + ingestor.getUnappliedEntries().size() + " != accepted " + ingestor.getAcceptedCount());
+		System.out.println("  target failure released the producer and the flush; " + applied + " applied, "
+						   + ingestor.getUnappliedEntries().size() + " reported unapplied");
+	}
+
+	/** Checks EvictingBag with limits that force evictions: victim choice per policy, the total limit,
+	    TINY_LFU admission and scan resistance, the listener and the counters, and a random workload
+	    against a model that the eviction listener keeps in step. */
+	private static void checkBoundedEvictingBags(Random random) {
+		System.out.println("Bounded EvictingBag");
+		Map<Integer, Integer> evicted = new HashMap<Integer, Integer>();
+
+		// LFU evicts the entry with the fewest copies
+		EvictingBag<Integer> lfu = new EvictingBag<Integer>(3, EvictingBag.Policy.LFU);
+		lfu.setEvictionListener((entry, count) -> addTo(evicted, entry, count));
+		addCopies(lfu, 1, 3);
+		addCopies(lfu, 2, 1);
+		addCopies(lfu, 3, 2);
+		check(lfu.add(4), "LFU refused a new entry");
+		check(evicted.equals(Map.of(2, 1)), "LFU evicted " + evicted + " instead of the single copy of 2");
+		checkSameContents(lfu, Map.of(1, 3, 3, 2, 4, 1), "LFU after eviction");
+		check(lfu.getEvictionCount() == 1 && lfu.getRejectionCount() == 0, "LFU eviction or rejection count");
+
+		// LRU evicts the entry added or looked up least recently, and counts hits and misses
+		evicted.clear();
+		EvictingBag<Integer> lru = new EvictingBag<Integer>(3, EvictingBag.Policy.LRU);
+		lru.setEvictionListener((entry, count) -> addTo(evicted, entry, count));
+		addCopies(lru, 1, 2);
+		addCopies(lru, 2, 1);
+		addCopies(lru, 3, 1);
+		check(lru.contains(1), "LRU lost an entry before it was full");
+		check(!lru.contains(9), "LRU found an entry that was never added");
+		check(lru.add(4), "LRU refused a new entry");
+		check(evicted.equals(Map.of(2, 1)), "LRU evicted " + evicted + " instead of the least recently used 2");
+		check(lru.getHitCount() == 1 && lru.getMissCount() == 1 && lru.getHitRate() == 0.5, "LRU hit and miss counts");
+
+		// The total limit evicts whole entries, and an entry cannot evict itself
+		evicted.clear();
+		EvictingBag<Integer> bounded = new EvictingBag<Integer>(10, 5, EvictingBag.Policy.LRU);
+		bounded.setEvictionListener((entry, count) -> addTo(evicted, entry, count));
+		addCopies(bounded, 1, 3);
+		addCopies(bounded, 2, 2);
+		check(bounded.add(3), "total limit refused a new entry");
+		check(evicted.equals(Map.of(1, 3)), "total limit evicted " + evicted + " instead of all three copies of 1");
+		checkSameContents(bounded, Map.of(2, 2, 3, 1), "total limit after eviction");
+		EvictingBag<Integer> single = new EvictingBag<Integer>(10, 2, EvictingBag.Policy.LFU);
+		addCopies(single, 7, 2);
+		check(!single.add(7), "an entry evicted itself to make room for one more copy");
+		check(single.getCurrentSize() == 2, "a refused add changed the size");
+
+		// TINY_LFU refuses a newcomer until the sketch has seen it more often than the victim
+		evicted.clear();
+		EvictingBag<Integer> tiny = new EvictingBag<Integer>(2, EvictingBag.Policy.TINY_LFU);
+		tiny.setEvictionListener((entry, count) -> addTo(evicted, entry, count));
+		tiny.add(1);
+		tiny.add(2);
+		for(int i = 0; i < 3; i++) {
+			tiny.contains(1);
+			tiny.contains(2);
+		}
+		check(!tiny.add(3), "TINY_LFU admitted a one-off entry over two popular ones");
+		check(tiny.getRejectionCount() == 1 && evicted.isEmpty(), "TINY_LFU rejection was counted wrongly or evicted an entry");
+		int attempts = 1;
+		while(!tiny.add(3) && attempts < 20)
+			attempts++;
+		check(attempts < 20, "TINY_LFU never admitted an entry that became popular");
+		check(tiny.getEvictionCount() == 1 && evicted.size() == 1 && tiny.getRejectionCount() == attempts,
+			  "TINY_LFU admission after " + attempts + " attempts did not evict exactly one entry");
+		checkScanResistance();
+
+		// Random workloads, with the listener removing evicted copies from the model
+		for(EvictingBag.Policy policy : EvictingBag.Policy.values()) {
+			Map<Integer, Integer> model = new HashMap<Integer, Integer>();
+			EvictingBag<Integer> bag = new EvictingBag<Integer>(20, 60, policy);
+			bag.setEvictionListener((entry, count) -> {
+				check(count(model, entry) == count, policy + ": listener was told " + count + " copies of " + entry + " were evicted");
+				addTo(model, entry, -count);
+			});
+			long rejections = 0;
+			for(int op = 0; op < 20000; op++) {
+				Integer value = random.nextInt(40);
+				if(random.nextInt(3) > 0) {
+					if(bag.add(value))
+						addTo(model, value, 1);
+					else
+						rejections++;
+				}
+				else if(bag.remove(value))
+					addTo(model, value, -1);
+				check(bag.getDistinctSize() <= 20 && bag.getCurrentSize() <= 60, policy + ": a limit was exceeded");
+				check(bag.getFrequencyOf(value) == count(model, value), policy + ": frequency of " + value + " disagrees with the model");
+			}
+			checkSameContents(bag, model, policy + " after a bounded workload");
+			check(bag.getHitCount() + bag.getMissCount() == 20000, policy + ": every lookup must count as a hit or a miss");
+			check(policy == EvictingBag.Policy.TINY_LFU || bag.getRejectionCount() == 0, policy + ": rejected entries without admission control");
+			check(bag.getRejectionCount() <= rejections, policy + ": more rejections counted than refused adds");
+			System.out.println("  " + policy + ": " + bag.getEvictionCount() + " evictions, " + bag.getRejectionCount() + " rejections in a bounded workload");
+		}
+	}
+
+	/** A TINY_LFU bag holding a hot set must keep nearly all of it through a scan of one-off entries. */
+	private static void checkScanResistance() {
+		final int hot = 100;
+		final int scan = 1000;
+		EvictingBag<Integer> bag = new EvictingBag<Integer>(hot, EvictingBag.Policy.TINY_LFU);
+		int[] hotEvictions = new int[1];
+		bag.setEvictionListener((entry, count) -> {
+			if(entry < hot)
+				hotEvictions[0]++;
+		});
+		for(int i = 0; i < hot; i++)
+			bag.add(i);
+		for(int round = 0; round < 4; round++)
+			for(int i = 0; i < hot; i++)
+				bag.contains(i);
+		for(int i = 0; i < scan; i++)
+			bag.add(100000 + i);
+		System.out.println("  TINY_LFU: a scan of " + scan + " one-off entries evicted " + hotEvictions[0] + " of " + hot + " hot entries");
+		check(hotEvictions[0] <= hot / 20, "TINY_LFU let a scan evict " + hotEvictions[0] + " of " + hot + " hot entries");
+	}
+
+	private static void addCopies(BagInterface<Integer> bag, Integer value, int copies) {
+		for(int i = 0; i < copies; i++)
+			check(bag.add(value), "add of " + value + " was refused");
+	}
+
+	/** Stores Integer entries from 0 to 2^24 - 1 as 3-byte records, so records are compared byte by byte. */
+	private static final OffHeapBag.Layout<Integer> THREE_BYTE_INTS = new OffHeapBag.Layout<Integer>() {
+		public int byteSize() { return 3; }
+		public void write(ByteBuffer buffer, int offset, Integer entry) {
+			buffer.put(offset, (byte) (entry >>> 16));
+			buffer.put(offset + 1, (byte) (entry >>> 8));
+			buffer.put(offset + 2, (byte) (int) entry);
+		}
+		public Integer read(ByteBuffer buffer, int offset) {
+			return (buffer.get(offset) & 0xFF) << 16 | (buffer.get(offset + 1) & 0xFF) << 8 | (buffer.get(offset + 2) & 0xFF);
+		}
+	};
+
+	/** Checks that CompactBag keeps ResizeableArrayBag's order through a round trip and the same removals,
+	    and that it packs each entry in just enough bits for its dictionary as the dictionary grows. */
+	private static void checkCompactBagRoundTrip(Random random) {
+		System.out.println("CompactBag round trip");
+		CompactBag<Integer> growing = new CompactBag<Integer>();
+		List<Integer> added = new ArrayList<Integer>();
+		for(int distinct = 1; distinct <= 1100; distinct++) {
+			growing.add(distinct - 1);
+			added.add(distinct - 1);
+			check(growing.getBitsPerEntry() == bitsFor(distinct),
+				  "a dictionary of " + distinct + " entries uses " + growing.getBitsPerEntry() + " bits per entry, expected " + bitsFor(distinct));
+			if(Integer.bitCount(distinct - 1) == 1)							// Just widened past a power of two
+				check(Arrays.equals(growing.toArray(), added.toArray()), "entries changed when the codes widened to " + growing.getBitsPerEntry() + " bits");
+		}
+		System.out.println("  bits per entry track ceil(log2(distinct)) up to " + growing.getDictionarySize() + " distinct entries");
+
+		int[] dictionarySizes = {1, 2, 3, 5, 16, 17, 100, 257, 1000};
+		for(int distinct : dictionarySizes) {
+			List<Integer> values = new ArrayList<Integer>();
+			for(int i = 0; i < distinct; i++)
+				values.add(i);
+			for(int i = 0; i < 2 * distinct; i++)
+				values.add(random.nextInt(distinct));
+			Collections.shuffle(values, random);
+			ResizeableArrayBag<Integer> original = new ResizeableArrayBag<Integer>();
+			for(Integer value : values)
+				original.add(value);
+
+			CompactBag<Integer> compact = new CompactBag<Integer>(original);
+			check(compact.getDictionarySize() == distinct && compact.getBitsPerEntry() == bitsFor(distinct),
+				  distinct + " distinct entries converted to a dictionary of " + compact.getDictionarySize() + " with " + compact.getBitsPerEntry() + " bits per entry");
+			checkSameOrder(original, compact.toResizeableArrayBag(), "after converting " + distinct + " distinct entries");
+
+			// The same removals on both bags must leave the same order, since both swap the last entry into the hole
+			int removals = values.size() - 1;
+			for(int op = 0; op < removals; op++) {
+				if(random.nextInt(4) == 0) {
+					Integer fromOriginal = original.remove();
+					Integer fromCompact = compact.remove();
+					check(Objects.equals(fromOriginal, fromCompact), "remove() returned " + fromCompact + ", ResizeableArrayBag returned " + fromOriginal);
+				}
+				else {
+					Integer value = random.nextInt(distinct + 2);				// Some values were never added
+					check(original.remove(value) == compact.remove(value), "remove(" + value + ") disagrees with ResizeableArrayBag");
+				}
+				if(op % 50 == 0)
+					checkSameOrder(original, compact.toResizeableArrayBag(), "after " + (op + 1) + " removals from " + distinct + " distinct entries");
+			}
+			checkSameOrder(original, compact.toResizeableArrayBag(), "after every removal from " + distinct + " distinct entries");
+			check(compact.getBitsPerEntry() == bitsFor(distinct), "removals changed the bits per entry of a dictionary of " + distinct);
+		}
+		System.out.println("  order survives conversion and identical removals for " + dictionarySizes.length + " dictionary sizes");
+	}
+
+	/** The bits a code needs for a dictionary of the given size: ceil(log2(distinct)), and at least one. */
+	private static int bitsFor(int distinct) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(distinct - 1));
+	}
+
+	/** Checks that two bags list the same entries in exactly the same order. */
+	private static void checkSameOrder(BagInterface<Integer> expected, BagInterface<Integer> actual, String when) {
+		Object[] expectedEntries = expected.toArray();
+		Object[] actualEntries = actual.toArray();
+		check(Arrays.equals(expectedEntries, actualEntries),
+			  when + ": order " + Arrays.toString(actualEntries) + " differs from " + Arrays.toString(expectedEntries));
+	}
+
+	/** Checks OffHeapBag with the LONGS, DOUBLES and an odd-width layout, and checks that close frees
+	    the native memory and makes every later call fail. */
+	private static void checkOffHeapBags(Random random) {
+		System.out.println("OffHeapBag layouts");
+		long[] longs = {Long.MIN_VALUE, -1L, 0L, 1L, 1L << 40, Long.MAX_VALUE};
+		checkOffHeapWorkload("LONGS", OffHeapBag.LONGS, () -> longs[random.nextInt(longs.length)] + random.nextInt(3), random);
+		double[] doubles = {Double.NaN, Double.NEGATIVE_INFINITY, -0.0, 0.0, Double.MIN_VALUE, 1.5, Double.MAX_VALUE};
+		checkOffHeapWorkload("DOUBLES", OffHeapBag.DOUBLES, () -> doubles[random.nextInt(doubles.length)], random);
+		checkOffHeapWorkload("3-byte records", THREE_BYTE_INTS, () -> (random.nextInt(8) << 21) | random.nextInt(4), random);
+
+		BufferPoolMXBean directPool = null;
+		for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+			if(pool.getName().equals("direct"))
+				directPool = pool;
+		OffHeapBag<Long> bag = new OffHeapBag<Long>(OffHeapBag.LONGS);
+		for(long i = 0; i < 1000000; i++)
+			bag.add(i);
+		long reserved = bag.getReservedBytes();
+		long usedBeforeClose = (directPool == null) ? 0 : directPool.getMemoryUsed();
+		bag.close();
+		long freed = (directPool == null) ? 0 : usedBeforeClose - directPool.getMemoryUsed();
+		check(directPool == null || freed >= reserved, "close freed " + freed + " of " + reserved + " bytes of direct memory");
+		bag.close();													// A second close has no effect
+
+		OffHeapBag<Long> open = new OffHeapBag<Long>(OffHeapBag.LONGS);
+		List<Supplier<Object>> calls = List.of(
+			() -> bag.getCurrentSize(), () -> bag.isEmpty(), () -> bag.toString(), () -> bag.add(1L),
+			() -> bag.remove(), () -> bag.remove(1L), () -> bag.getFrequencyOf(1L), () -> bag.contains(1L),
+			() -> bag.toArray(), () -> { bag.clear(); return null; }, () -> bag.getReservedBytes(),
+			() -> bag.union(open), () -> bag.intersection(open), () -> bag.difference(open),
+			() -> open.union(bag), () -> open.intersection(bag), () -> open.difference(bag));
+		for(int i = 0; i < calls.size(); i++) {
+			boolean refused = false;
+			try {
+				calls.get(i).get();
+			}
+			catch(IllegalStateException e) {
+				refused = true;
+			}
+			check(refused, "call " + i + " on a closed OffHeapBag did not throw IllegalStateException");
+		}
+		open.close();
+		System.out.println("  close freed " + freed + " bytes of direct memory at once and " + calls.size() + " later calls were refused");
+	}
+
+	/** Runs a random workload on an OffHeapBag with the given layout against a reference model, then
+	    runs the set operations against another bag of the same layout and against a ResizeableArrayBag. */
+	private static <E> void checkOffHeapWorkload(String name, OffHeapBag.Layout<E> layout, Supplier<E> values, Random random) {
+		Map<E, Integer> model = new HashMap<E, Integer>();
+		try (OffHeapBag<E> bag = new OffHeapBag<E>(layout); OffHeapBag<E> other = new OffHeapBag<E>(layout)) {
+			for(int op = 0; op < 20000; op++) {
+				E value = values.get();
+				int choice = random.nextInt(10);
+				if(choice < 5) {
+					check(bag.add(value), name + ": add returned false");
+					model.merge(value, 1, Integer::sum);
+				}
+				else if(choice < 8) {
+					boolean removed = bag.remove(value);
+					check(removed == model.containsKey(value), name + ": remove(" + value + ") returned " + removed);
+					if(removed)
+						model.computeIfPresent(value, (k, n) -> (n == 1) ? null : n - 1);
+				}
+				else if(choice < 9) {
+					E removed = bag.remove();
+					check((removed == null) == model.isEmpty(), name + ": remove() disagrees with the model");
+					if(removed != null) {
+						check(model.containsKey(removed), name + ": remove() returned " + removed + ", which was not in the bag");
+						model.computeIfPresent(removed, (k, n) -> (n == 1) ? null : n - 1);
+					}
+				}
+				else {
+					int expected = model.getOrDefault(value, 0);
+					check(bag.getFrequencyOf(value) == expected, name + ": frequency of " + value + " disagrees with the model");
+					check(bag.contains(value) == (expected > 0), name + ": contains(" + value + ") disagrees with the model");
+				}
+				check(bag.getCurrentSize() == modelSize(model), name + ": size disagrees with the model");
+			}
+			check(countsOfAny(bag).equals(model), name + ": contents differ from the reference model");
+
+			Map<E, Integer> otherModel = new HashMap<E, Integer>();
+			ResizeableArrayBag<E> onHeap = new ResizeableArrayBag<E>();
+			for(int i = 0; i < 500; i++) {
+				E value = values.get();
+				other.add(value);
+				onHeap.add(value);
+				otherModel.merge(value, 1, Integer::sum);
+			}
+			Map<E, Integer> expectedUnion = new HashMap<E, Integer>(model);
+			Map<E, Integer> expectedIntersection = new HashMap<E, Integer>();
+			Map<E, Integer> expectedDifference = new HashMap<E, Integer>(model);
+			for(Map.Entry<E, Integer> entry : otherModel.entrySet()) {
+				expectedUnion.merge(entry.getKey(), entry.getValue(), Integer::sum);
+				int shared = Math.min(model.getOrDefault(entry.getKey(), 0), entry.getValue());
+				if(shared > 0) {
+					expectedIntersection.put(entry.getKey(), shared);
+					expectedDifference.computeIfPresent(entry.getKey(), (k, n) -> (n == shared) ? null : n - shared);
+				}
+			}
+			for(BagInterface<E> operand : List.of(other, onHeap)) {
+				String with = name + " with " + operand.getClass().getName();
+				check(countsOfAny(bag.union(operand)).equals(expectedUnion), with + ": union differs from the reference model");
+				check(countsOfAny(bag.intersection(operand)).equals(expectedIntersection), with + ": intersection differs from the reference model");
+				check(countsOfAny(bag.difference(operand)).equals(expectedDifference), with + ": difference differs from the reference model");
+			}
+		}
+		System.out.println("  " + name + ": workload and set operations agree with the reference model");
+	}
+
+	private static <E> Map<E, Integer> countsOfAny(BagInterface<E> bag) {
+		Map<E, Integer> counts = new HashMap<E, Integer>();
+		for(Object entry : bag.toArray()) {
+			@SuppressWarnings("unchecked")
+			E value = (E) entry;
+			counts.merge(value, 1, Integer::sum);
+		}
+		return counts;
+	}
+
+	private static <E> int modelSize(Map<E, Integer> model) {
+		int total = 0;
+		for(int count : model.values())
+			total += count;
+		return total;
+	}
+
+	/** Runs a cached-hash ResizeableArrayBag of Strings whose hash codes collide, plus null entries,
+	    in step with an uncached one. Both must agree with a reference model and keep their entries in
+	    the same order, which fails if a swap in removeEntry leaves a cached hash behind its entry. */
+	private static void checkCachedHashStrings(Random random) {
+		System.out.println("Cached hashes with Strings");
+		check("Aa".hashCode() == "BB".hashCode() && "AaBB".hashCode() == "BBAa".hashCode() && "".hashCode() == 0,
+			  "the colliding test Strings no longer collide");
+		String[] pool = {"Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB", "", null, "x"};	// "" shares hash 0 with null entries
+
+		ResizeableArrayBag<String> cached = new ResizeableArrayBag<String>(4, true);
+		ResizeableArrayBag<String> plain = new ResizeableArrayBag<String>(4);
+		Map<String, Integer> model = new HashMap<String, Integer>();
+		cached.add("Aa");
+		check(!cached.contains("BB") && cached.getFrequencyOf("BB") == 0 && !cached.remove("BB"), "a hash match was taken for an equal entry");
+		cached.remove();
+
+		for(int op = 0; op < 20000; op++) {
+			String value = pool[random.nextInt(pool.length)];
+			int choice = random.nextInt(10);
+			if(choice < 4) {
+				cached.add(value);
+				plain.add(value);
+				model.merge(value, 1, Integer::sum);
+			}
+			else if(choice < 6 && value != null) {							// Searching for null is not supported by either path
+				boolean removed = cached.remove(value);
+				check(removed == plain.remove(value), "remove(\"" + value + "\") differs from the uncached bag");
+				check(removed == model.containsKey(value), "remove(\"" + value + "\") returned " + removed);
+				if(removed)
+					model.computeIfPresent(value, (k, n) -> (n == 1) ? null : n - 1);
+			}
+			else if(choice < 7) {
+				check(cached.isEmpty() == model.isEmpty(), "isEmpty() disagrees with the reference model");
+				if(!cached.isEmpty()) {
+					String removed = cached.remove();
+					check(Objects.equals(removed, plain.remove()), "remove() differs from the uncached bag");
+					model.computeIfPresent(removed, (k, n) -> (n == 1) ? null : n - 1);
+				}
+			}
+			else if(value != null) {
+				int expected = model.getOrDefault(value, 0);
+				check(cached.getFrequencyOf(value) == expected, "getFrequencyOf(\"" + value + "\") returned " + cached.getFrequencyOf(value) + ", expected " + expected);
+				check(cached.contains(value) == (expected > 0), "contains(\"" + value + "\") disagrees with the reference model");
+			}
+			check(Arrays.equals(cached.toArray(), plain.toArray()), "cached and uncached bags hold different entries or orders after operation " + op);
+		}
+		check(countsOfAny(cached).equals(model), "cached bag differs from the reference model");
+		System.out.println("  colliding Strings and null entries agree with an uncached bag and the reference model");
+	}
+
+	/** Runs the set operations of every subject that accepts other bag types against an operand of every other subject. */
+	private static void checkMixedOperands(List<Subject> subjects, Random random) {
+		System.out.println("Mixed bag types");
+		int pairs = 0;
+		for(Subject receiver : subjects) {
+			if(!receiver.acceptsOtherBagTypes)
+				continue;
+			for(Subject operand : subjects) {
+				BagInterface<Integer> first = receiver.factory.get();
+				BagInterface<Integer> second = operand.factory.get();
+				Map<Integer, Integer> firstModel = new HashMap<Integer, Integer>();
+				Map<Integer, Integer> secondModel = new HashMap<Integer, Integer>();
+				for(int i = 0; i < 40; i++) {
+					Integer a = random.nextInt(16);
+					Integer b = random.nextInt(16);
+					first.add(a);
+					addTo(firstModel, a, 1);
+					second.add(b);
+					addTo(secondModel, b, 1);
+				}
+
+				Map<Integer, Integer> expectedUnion = new HashMap<Integer, Integer>(firstModel);
+				Map<Integer, Integer> expectedIntersection = new HashMap<Integer, Integer>();
+				Map<Integer, Integer> expectedDifference = new HashMap<Integer, Integer>();
+				for(Map.Entry<Integer, Integer> entry : secondModel.entrySet())
+					addTo(expectedUnion, entry.getKey(), entry.getValue());
+				for(Map.Entry<Integer, Integer> entry : firstModel.entrySet()) {
+					int shared = Math.min(entry.getValue(), count(secondModel, entry.getKey()));
+					if(shared > 0)
+						expectedIntersection.put(entry.getKey(), shared);
+					if(entry.getValue() > shared)
+						expectedDifference.put(entry.getKey(), entry.getValue() - shared);
+				}
+
+				String pair = receiver.name + " with " + operand.name;
+				checkSameContents(first.union(second), expectedUnion, pair + " union");
+				checkSameContents(first.intersection(second), expectedIntersection, pair + " intersection");
+				checkSameContents(first.difference(second), expectedDifference, pair + " difference");
+				checkSameContents(first, firstModel, pair + " first operand");
+				checkSameContents(second, secondModel, pair + " second operand");
+				pairs++;
+			}
+		}
+		System.out.println("  " + pairs + " pairs of bag types agree with the reference model");
+	}
+
+	/** Checks IntArrayBag's histogram and its sorted-run merges on empty runs, duplicates and extreme values. */
+	private static void checkIntArrayBagEdges(Random random) {
+		System.out.println("IntArrayBag edge cases");
+		IntArrayBag bag = new IntArrayBag();
+		check(Arrays.equals(bag.histogram(-2, 2), new int[5]), "histogram of an empty bag is not all zeros");
+		for(int value : new int[] {-3, -2, -2, 0, 2, 2, 2, 3, Integer.MIN_VALUE, Integer.MAX_VALUE})
+			bag.add(value);
+		check(Arrays.equals(bag.histogram(-2, 2), new int[] {2, 0, 1, 0, 3}), "histogram miscounts duplicates or values outside the range");
+		check(Arrays.equals(bag.histogram(2, 2), new int[] {3}), "histogram over a single value");
+		check(Arrays.equals(bag.histogram(Integer.MAX_VALUE - 1, Integer.MAX_VALUE), new int[] {0, 1}), "histogram at the top of the int range");
+		check(Arrays.equals(bag.histogram(Integer.MIN_VALUE, Integer.MIN_VALUE + 1), new int[] {1, 0}), "histogram at the bottom of the int range");
+		checkHistogramRefused(bag, 1, 0);
+		checkHistogramRefused(bag, Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+		int[] empty = new int[0];
+		int[] run = {Integer.MIN_VALUE, -1, -1, 0, 5, 5, 5, Integer.MAX_VALUE};
+		check(IntArrayBag.intersectSorted(empty, empty).length == 0, "intersection of empty runs");
+		check(IntArrayBag.intersectSorted(run, empty).length == 0, "intersection with an empty run");
+		check(IntArrayBag.intersectSorted(empty, run).length == 0, "intersection of an empty run");
+		check(IntArrayBag.differenceSorted(empty, run).length == 0, "difference of an empty run");
+		check(Arrays.equals(IntArrayBag.differenceSorted(run, empty), run), "difference with an empty run");
+		check(Arrays.equals(IntArrayBag.intersectSorted(run, new int[] {-1, 5, 5, 6, Integer.MAX_VALUE, Integer.MAX_VALUE}),
+							new int[] {-1, 5, 5, Integer.MAX_VALUE}), "intersection keeps the smaller count of each duplicate");
+		check(Arrays.equals(IntArrayBag.differenceSorted(run, new int[] {Integer.MIN_VALUE, Integer.MIN_VALUE, -1, 5, 6}),
+							new int[] {-1, 0, 5, 5, Integer.MAX_VALUE}), "difference removes one copy per copy in the second run");
+		check(IntArrayBag.differenceSorted(run, run).length == 0, "difference of a run with itself");
+		check(Arrays.equals(IntArrayBag.intersectSorted(run, run), run), "intersection of a run with itself");
+
+		// Random runs over a small range, so duplicates are common, with the extremes mixed in
+		int trials = 2000;
+		for(int trial = 0; trial < trials; trial++) {
+			int[] first = randomSortedRun(random);
+			int[] second = randomSortedRun(random);
+			Map<Integer, Integer> firstCounts = new HashMap<Integer, Integer>();
+			Map<Integer, Integer> secondCounts = new HashMap<Integer, Integer>();
+			for(int value : first)
+				addTo(firstCounts, value, 1);
+			for(int value : second)
+				addTo(secondCounts, value, 1);
+
+			List<Integer> expectedIntersection = new ArrayList<Integer>();
+			List<Integer> expectedDifference = new ArrayList<Integer>();
+			for(int value : first) {
+				if(count(secondCounts, value) > 0) {
+					expectedIntersection.add(value);
+					addTo(secondCounts, value, -1);
+				}
+				else
+					expectedDifference.add(value);
+			}
+			check(Arrays.equals(IntArrayBag.intersectSorted(first, second), toInts(expectedIntersection)),
+				  "intersectSorted of " + Arrays.toString(first) + " and " + Arrays.toString(second));
+			check(Arrays.equals(IntArrayBag.differenceSorted(first, second), toInts(expectedDifference)),
+				  "differenceSorted of " + Arrays.toString(first) + " and " + Arrays.toString(second));
+		}
+		System.out.println("  histogram and " + trials + " random sorted-run merges agree with the reference model");
+	}
+
+	/** Runs the Vector API kernels against the scalar ones on random arrays of every length up to a few
+	    vectors, so both the vector loops and their scalar tails are compared, and prints how the two
+	    compare in speed. Skipped, with a note, unless the JVM runs with --add-modules jdk.incubator.vector
+	    and vector/VectorIntKernels has been compiled. */
+	private static void checkIntKernels(Random random) {
+		System.out.println("IntArrayBag kernels");
+		IntKernels scalar = new ScalarIntKernels();
+		IntKernels vector;
+		try {
+			vector = (IntKernels) Class.forName("VectorIntKernels").getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException | LinkageError e) {
+			check(!IntArrayBag.isVectorized(), "IntArrayBag claims vector kernels that cannot be loaded");
+			System.out.println("  vector kernels not available (" + e + "); IntArrayBag uses the scalar loops");
+			return;
+		}
+		check(IntArrayBag.isVectorized(), "vector kernels can be loaded but IntArrayBag does not use them");
+
+		int trials = 0;
+		for(int length = 0; length <= 200; length++) {
+			for(int spread : new int[] {4, 40, Integer.MAX_VALUE}) {
+				int[] values = new int[length];
+				for(int i = 0; i < length; i++) {
+					int pick = random.nextInt(20);
+					values[i] = (pick == 0) ? Integer.MIN_VALUE : (pick == 1) ? Integer.MAX_VALUE
+							  : (spread == Integer.MAX_VALUE) ? random.nextInt() : random.nextInt(spread) - spread / 2;
+				}
+				int size = (length == 0) ? 0 : random.nextInt(length + 1);		// Elements past size must be ignored
+				int probe = (length > 0 && random.nextBoolean()) ? values[random.nextInt(length)] : random.nextInt(spread == Integer.MAX_VALUE ? 100 : spread);
+				check(vector.indexOf(values, size, probe) == scalar.indexOf(values, size, probe), "indexOf differs at length " + length);
+				check(vector.count(values, size, probe) == scalar.count(values, size, probe), "count differs at length " + length);
+				for(int range : new int[] {1, 16, 17, 100}) {
+					int low = (random.nextInt(4) == 0) ? Integer.MAX_VALUE - range + 1 : random.nextInt(spread == Integer.MAX_VALUE ? 100 : spread) - spread / 2;
+					int[] expected = new int[range];
+					int[] actual = new int[range];
+					scalar.histogram(values, size, low, expected);
+					vector.histogram(values, size, low, actual);
+					check(Arrays.equals(actual, expected), "histogram over " + range + " values from " + low + " differs at length " + length);
+				}
+				int[] first = Arrays.copyOf(values, size);
+				int[] second = new int[random.nextInt(length + 1)];
+				for(int i = 0; i < second.length; i++)
+					second[i] = (length > 0 && random.nextBoolean()) ? values[random.nextInt(length)] : random.nextInt(spread == Integer.MAX_VALUE ? 100 : spread);
+				Arrays.sort(first);
+				Arrays.sort(second);
+				check(Arrays.equals(vector.intersectSorted(first, second), scalar.intersectSorted(first, second)), "intersectSorted differs at length " + length);
+				check(Arrays.equals(vector.differenceSorted(first, second), scalar.differenceSorted(first, second)), "differenceSorted differs at length " + length);
+				check(Arrays.equals(vector.differenceSorted(second, first), scalar.differenceSorted(second, first)), "differenceSorted differs at length " + length);
+				trials++;
+			}
+		}
+
+		// Speed, printed only, best of several rounds
+		int[] big = new int[1 << 22];
+		for(int i = 0; i < big.length; i++)
+			big[i] = random.nextInt(1000);
+		int[] sortedA = Arrays.copyOf(big, big.length);
+		int[] sortedB = new int[big.length / 64];
+		for(int i = 0; i < sortedB.length; i++)
+			sortedB[i] = random.nextInt(1000);
+		Arrays.sort(sortedA);
+		Arrays.sort(sortedB);
+		double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		long sink = 0;
+		for(int round = 0; round < 15; round++) {
+			IntKernels[] kernels = {scalar, vector};
+			for(int k = 0; k < 2; k++) {
+				long start = System.nanoTime();
+				for(int pass = 0; pass < 64; pass++)
+					sink += kernels[k].count(big, 1 << 16, 500);				// A slice that stays in cache, so the compare is timed, not memory
+				best[k] = Math.min(best[k], (double) (System.nanoTime() - start) / (64 << 16));
+				start = System.nanoTime();
+				sink += kernels[k].intersectSorted(sortedA, sortedB).length;
+				best[2 + k] = Math.min(best[2 + k], (double) (System.nanoTime() - start) / sortedA.length);
+			}
+		}
+		System.out.printf("  %d random cases agree with the scalar loops; count %.3f -> %.3f ns/int, skewed intersectSorted %.3f -> %.3f ns/int (%d)%n",
+						  trials, best[0], best[1], best[2], best[3], sink % 10);
+	}
+
+	private static void checkHistogramRefused(IntArrayBag bag, int low, int high) {
+		boolean refused = false;
+		try {
+			bag.histogram(low, high);
+		}
+		catch(IllegalStateException e) {
+			refused = true;
+		}
+		check(refused, "histogram(" + low + ", " + high + ") was not refused");
+	}
+
+	private static int[] randomSortedRun(Random random) {
+		int[] run = new int[random.nextInt(12)];
+		for(int i = 0; i < run.length; i++) {
+			int pick = random.nextInt(10);
+			run[i] = (pick == 0) ? Integer.MIN_VALUE : (pick == 1) ? Integer.MAX_VALUE : random.nextInt(6) - 3;
+		}
+		Arrays.sort(run);
+		return run;
+	}
+
+	private static int[] toInts(List<Integer> values) {
+		int[] result = new int[values.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = values.get(i);
+		return result;
+	}
+
+	/** Counts the entries of a bag by value. */
+	private static Map<Integer, Integer> countsOf(BagInterface<Integer> bag) {
+		Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		Object[] entries = bag.toArray();								// Bags return Object[] at run time, so avoid a cast to Integer[]
+		for(Object entry : entries)
+			addTo(counts, (Integer) entry, 1);
+		return counts;
+	}
+
+	/** Takes the median of each timing over repeated runs at one size, so one slow run cannot fake a regression. */
+	private static Measurement median(List<Measurement> runs) {
+		int count = runs.size();
+		double[] meanScalar = new double[count];
+		double[] p50 = new double[count];
+		double[] p99 = new double[count];
+		double[] opsPerMilli = new double[count];
+		double[] meanSet = new double[count];
+		for(int i = 0; i < count; i++) {
+			Measurement run = runs.get(i);
+			meanScalar[i] = run.meanScalarNanos;
+			p50[i] = run.p50ScalarNanos;
+			p99[i] = run.p99ScalarNanos;
+			opsPerMilli[i] = run.scalarOpsPerMilli;
+			meanSet[i] = run.meanSetMillis;
+		}
+		Arrays.sort(meanScalar);
+		Arrays.sort(p50);
+		Arrays.sort(p99);
+		Arrays.sort(opsPerMilli);
+		Arrays.sort(meanSet);
+
+		Measurement m = new Measurement();
+		m.size = runs.get(0).size;
+		m.meanScalarNanos = meanScalar[count / 2];
+		m.p50ScalarNanos = p50[count / 2];
+		m.p99ScalarNanos = p99[count / 2];
+		m.scalarOpsPerMilli = opsPerMilli[count / 2];
+		m.meanSetMillis = meanSet[count / 2];
+		return m;
+	}
+
+	/** Estimates k in latency ~ n^k by a least-squares fit of log(latency) against log(n) over every point of the curve. */
+	private static double growthExponent(double[] sizes, double[] latencies) {
+		int points = 0;
+		double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+		for(int i = 0; i < sizes.length; i++) {
+			if(latencies[i] <= 0)
+				continue;												// Too fast for the timer to see
+			double x = Math.log(sizes[i]);
+			double y = Math.log(latencies[i]);
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+			points++;
+		}
+		double denominator = points * sumXX - sumX * sumX;
+		if(points < 2 || denominator == 0)
+			return 0;
+		return (points * sumXY - sumX * sumY) / denominator;
+	}
+
+	/** Checks that a bag holds exactly the entries counted by a reference model. */
+	private static void checkSameContents(BagInterface<Integer> bag, Map<Integer, Integer> expected, String when) {
+		Object[] entries = bag.toArray();
+		Map<Integer, Integer> actual = countsOf(bag);
+		check(entries.length == bag.getCurrentSize(), when + ": toArray length " + entries.length + " but getCurrentSize() " + bag.getCurrentSize());
+		check(actual.equals(expected), when + ": contents differ from the reference model");
+	}
+
+	/** Adds delta to the count of value, dropping values whose count reaches zero. */
+	private static void addTo(Map<Integer, Integer> counts, Integer value, int delta) {
+		int updated = count(counts, value) + delta;
+		if(updated == 0)
+			counts.remove(value);
+		else
+			counts.put(value, updated);
+	}
+
+	private static int count(Map<Integer, Integer> counts, Integer value) {
+		Integer n = counts.get(value);
+		return (n == null) ? 0 : n;
+	}
+
+	/** Throws an AssertionError carrying message if condition is false. */
+	private static void check(boolean condition, String message) {
+		if(!condition)
+			throw new AssertionError(message);
+	}
+}
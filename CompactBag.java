@@ -0,0 +1,334 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A class of bags for data with few distinct entries. Each distinct entry is stored once in a
+    dictionary and given an int code; the bag itself is an array of codes packed into longs with
+    just enough bits per code for the dictionary, so an entry costs log2(distinct) bits instead of
+    a reference. The codes keep the same order, and the same swap-with-last removal, as
+    ResizeableArrayBag, so converting between the two preserves the order of the entries.
+    Codes of entries that are no longer in the bag stay in the dictionary until clear is called. */
+public class CompactBag<T> implements BagInterface<T> {
+	private static final int DEFAULT_CAPACITY = 64;					// Entries, before the first resize
+
+	private List<T> dictionary;										// Code -> entry
+	private Map<T, Integer> codes;									// Entry -> code
+	private long[] words;											// Packed codes, lowest bits first
+	private int bitsPerCode;
+	private int numberOfEntries;
+
+	/** No-argument constructor creates an empty bag. */
+	public CompactBag() {
+		dictionary = new ArrayList<T>();
+		codes = new HashMap<T, Integer>();
+		bitsPerCode = 1;
+		words = new long[wordsFor(DEFAULT_CAPACITY, bitsPerCode)];
+		numberOfEntries = 0;
+	}
+
+	/** Creates a compact bag holding the entries of another bag in the same order.
+	    @param source The bag to copy, for example a ResizeableArrayBag. */
+	public CompactBag(BagInterface<T> source) {
+		this();
+		for(T entry : source.toArray())
+			add(entry);
+	}
+
+	/** Creates an empty bag that shares a copy of another bag's dictionary, so codes can be copied directly. */
+	private CompactBag(CompactBag<T> dictionarySource) {
+		dictionary = new ArrayList<T>(dictionarySource.dictionary);
+		codes = new HashMap<T, Integer>(dictionarySource.codes);
+		bitsPerCode = dictionarySource.bitsPerCode;
+		words = new long[wordsFor(DEFAULT_CAPACITY, bitsPerCode)];
+		numberOfEntries = 0;
+	}
+
+	/** Copies this bag into a ResizeableArrayBag with the entries in the same order.
+	    @return A new ResizeableArrayBag holding the entries of this bag.
+	    @throws IllegalStateException If this bag holds more entries than a ResizeableArrayBag allows. */
+	public ResizeableArrayBag<T> toResizeableArrayBag() {
+		ResizeableArrayBag<T> result = new ResizeableArrayBag<T>();
+		for(int i = 0; i < numberOfEntries; i++)
+			result.add(dictionary.get(getCode(i)));
+		return result;
+	}
+
+	/** Gets the current number of entries in this bag.
+	   @return The integer number of entries currently in this bag. */
+	@Override
+	public int getCurrentSize() {
+		return numberOfEntries;
+	}
+
+	/** Gets the number of distinct entries in the dictionary.
+	   @return The dictionary size. */
+	public int getDictionarySize() {
+		return dictionary.size();
+	}
+
+	/** Gets the number of bits each entry currently takes in the packed array.
+	   @return The bits per entry. */
+	public int getBitsPerEntry() {
+		return bitsPerCode;
+	}
+
+	/** Sees whether this bag is empty.
+	   @return True if this bag is empty, or false if not. */
+	@Override
+	public boolean isEmpty() {
+		return numberOfEntries == 0;
+	}
+
+	/** Adds a new entry to this bag.
+	   @param newEntry The object to be added as a new entry.
+	   @return True. */
+	@Override
+	public boolean add(T newEntry) {
+		Integer code = codes.get(newEntry);
+		if(code == null) {
+			code = dictionary.size();
+			dictionary.add(newEntry);
+			codes.put(newEntry, code);
+			if(code >>> bitsPerCode != 0)
+				widenCodes();												// O(n), but only once per doubling of the dictionary
+		}
+		appendCode(code);
+		return true;
+	}
+
+	/** Appends a code that is already in the dictionary. */
+	private void appendCode(int code) {
+		if(wordsFor(numberOfEntries + 1, bitsPerCode) > words.length)
+			words = Arrays.copyOf(words, Math.max(2 * words.length, 1));	// O(n) because array elements have to be copied.
+		setCode(numberOfEntries, code);
+		numberOfEntries++;
+	}
+
+	/** Repacks every code with one more bit. */
+	private void widenCodes() {
+		int newBits = bitsPerCode + 1;
+		int capacity = (int) Math.min((long) words.length * 64 / bitsPerCode, Integer.MAX_VALUE);	// Keep room for as many entries as before
+		long[] newWords = new long[wordsFor(Math.max(capacity, numberOfEntries), newBits)];
+		for(int i = 0; i < numberOfEntries; i++)
+			writeCode(newWords, newBits, i, getCode(i));
+		words = newWords;
+		bitsPerCode = newBits;
+	}
+
+	/** Gets the number of longs needed for count codes of the given width. */
+	private static int wordsFor(int count, int bits) {
+		long totalBits = (long) count * bits;
+		long needed = (totalBits + 63) >>> 6;
+		if(needed > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("Attempted to create a bag whose capacity exceeds allowed maximum.");
+		return (int) needed;
+	}
+
+	/** Reads the code at a given index. */
+	private int getCode(int index) {
+		long bitPosition = (long) index * bitsPerCode;
+		int word = (int) (bitPosition >>> 6);
+		int offset = (int) (bitPosition & 63);
+		long value = words[word] >>> offset;
+		if(offset + bitsPerCode > 64)
+			value |= words[word + 1] << (64 - offset);						// The code straddles two longs
+		return (int) (value & ((1L << bitsPerCode) - 1));
+	}
+
+	private void setCode(int index, int code) {
+		writeCode(words, bitsPerCode, index, code);
+	}
+
+	/** Writes a code of the given width at a given index of a packed array. */
+	private static void writeCode(long[] target, int bits, int index, int code) {
+		long mask = (1L << bits) - 1;
+		long bitPosition = (long) index * bits;
+		int word = (int) (bitPosition >>> 6);
+		int offset = (int) (bitPosition & 63);
+		target[word] = (target[word] & ~(mask << offset)) | ((code & mask) << offset);
+		if(offset + bits > 64) {
+			int spill = 64 - offset;										// Bits already written to the lower long
+			long highMask = mask >>> spill;
+			target[word + 1] = (target[word + 1] & ~highMask) | ((code & mask) >>> spill);
+		}
+	}
+
+	/** Removes one unspecified entry from this bag, if possible.
+	   @return Either the removed entry, if the removal was successful, or null. */
+	@Override
+	public T remove() {
+		T result = null;
+		if(!isEmpty()) {
+			result = dictionary.get(getCode(numberOfEntries - 1));
+			setCode(numberOfEntries - 1, 0);
+			numberOfEntries--;
+		}
+		return result;
+	}
+
+	/** Removes one occurrence of a given entry from this bag, if possible.
+	   @param anEntry The entry to be removed.
+	   @return True if the removal was successful, or false if not. */
+	@Override
+	public boolean remove(T anEntry) {
+		Integer code = codes.get(anEntry);
+		if(code == null)
+			return false;
+		int index = indexOfCode(code);
+		if(index < 0)
+			return false;
+		setCode(index, getCode(numberOfEntries - 1));					// Swapping the last entry into the hole, as ResizeableArrayBag does
+		setCode(numberOfEntries - 1, 0);
+		numberOfEntries--;
+		return true;
+	}
+
+	/** Locates the first entry with a given code. Returns its index, or -1 if there is none. */
+	private int indexOfCode(int code) {
+		for(int i = 0; i < numberOfEntries; i++)
+			if(getCode(i) == code)
+				return i;
+		return -1;
+	}
+
+	/** Removes all entries from this bag and empties the dictionary. */
+	@Override
+	public void clear() {
+		dictionary.clear();
+		codes.clear();
+		bitsPerCode = 1;
+		words = new long[wordsFor(DEFAULT_CAPACITY, bitsPerCode)];
+		numberOfEntries = 0;
+	}
+
+	/** Counts the number of times a given entry appears in this bag by scanning the codes.
+	   @param anEntry The entry to be counted.
+	   @return The number of times anEntry appears in this bag. */
+	@Override
+	public int getFrequencyOf(T anEntry) {
+		Integer code = codes.get(anEntry);
+		if(code == null)
+			return 0;
+
+		// Walk the packed array once, comparing codes without calling equals
+		int target = code;
+		int bits = bitsPerCode;
+		long mask = (1L << bits) - 1;
+		long[] localWords = words;
+		int counter = 0;
+		long bitPosition = 0;
+		for(int i = 0; i < numberOfEntries; i++, bitPosition += bits) {
+			int word = (int) (bitPosition >>> 6);
+			int offset = (int) (bitPosition & 63);
+			long value = localWords[word] >>> offset;
+			if(offset + bits > 64)
+				value |= localWords[word + 1] << (64 - offset);
+			if((value & mask) == target)
+				counter++;
+		}
+		return counter;
+	}
+
+	/** Tests whether this bag contains a given entry.
+	   @param anEntry The entry to locate.
+	   @return True if this bag contains anEntry, or false otherwise. */
+	@Override
+	public boolean contains(T anEntry) {
+		Integer code = codes.get(anEntry);
+		return (code != null) && indexOfCode(code) > -1;
+	}
+
+	@Override
+	public T[] toArray() {
+		// The cast is safe because the new array contains null entries
+		@SuppressWarnings("unchecked")
+		T[] result = (T[]) new Object[numberOfEntries];				// Unchecked type casting
+
+		for(int i = 0; i < numberOfEntries; i++)
+			result[i] = dictionary.get(getCode(i));
+
+		return result;
+	}
+
+	/** Counts the entries of another bag per code of this bag's dictionary, ignoring entries this bag has never seen. */
+	private int[] codeCountsOf(BagInterface<T> otherBag) {
+		int[] counts = new int[dictionary.size()];
+		for(T entry : otherBag.toArray()) {
+			Integer code = codes.get(entry);
+			if(code != null)
+				counts[code]++;
+		}
+		return counts;
+	}
+
+	/** A new collection of entries created in a new bag after the contents of the first and second bag are combined.
+        Note: The union does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items from the first and second bag. */
+	@Override
+	public BagInterface<T> union(BagInterface<T> otherBag) {
+		CompactBag<T> unionBag = new CompactBag<T>(this);
+		unionBag.words = Arrays.copyOf(words, words.length);				// Same dictionary, so the packed codes copy as they are
+		unionBag.numberOfEntries = numberOfEntries;
+
+		for(T entry : otherBag.toArray())
+			unionBag.add(entry);
+
+		return unionBag;
+	}
+
+	/** A new collection of entries created in a new bag when ONLY the same items are from the first and second bag.
+        Note: The intersection does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items that are ONLY in the first and second bag. */
+	@Override
+	public BagInterface<T> intersection(BagInterface<T> otherBag) {
+		CompactBag<T> intersectionBag = new CompactBag<T>(this);
+		int[] otherCounts = codeCountsOf(otherBag);						// O(m) once instead of an O(n) search per entry
+
+		for(int i = 0; i < numberOfEntries; i++) {
+			int code = getCode(i);
+			if(otherCounts[code] > 0) {
+				intersectionBag.appendCode(code);
+				otherCounts[code]--;
+			}
+		}
+		return intersectionBag;
+	}
+
+	/** A new collection of entries created in a new bag that is left over after removing those that also occur in the second bag.
+        Note: The difference does not affect the contents of the first and second bag.
+        @param otherBag The other second bag.
+        @return A new bag collection that contains all items that are left over after removing those that appear in the second bag. */
+	@Override
+	public BagInterface<T> difference(BagInterface<T> otherBag) {
+		CompactBag<T> differenceBag = new CompactBag<T>(this);
+		int[] otherCounts = codeCountsOf(otherBag);
+
+		for(int i = 0; i < numberOfEntries; i++) {
+			int code = getCode(i);
+			if(otherCounts[code] > 0)
+				otherCounts[code]--;										// Cancelled by one occurrence in the second bag
+			else
+				differenceBag.appendCode(code);
+		}
+		return differenceBag;
+	}
+
+	/** The toString method overrides the superclass toString method. This version includes the contents of the bag.
+	    @return Literal concatenated string. */
+	public String toString() {
+		String myString;
+		myString = ("bag contains " + this.getCurrentSize() + " items(s):\n");
+
+		Object[] bagArray = this.toArray();
+
+		for(int i = 0; i < bagArray.length; i++)
+			myString += (bagArray[i] + " ");
+
+		myString += "\n";
+		return myString;
+	}
+}
@@ -0,0 +1,564 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/** A bounded bag that evicts whole entries, with all their copies, to stay within a limit on
+    the number of distinct entries and a limit on the total number of entries.
+    The victim is chosen by the bag's policy:
+    LFU evicts the entry with the lowest frequency, found in O(1) through frequency buckets;
+    LRU evicts the entry that was added or looked up least recently;
+    TINY_LFU evicts like LRU but only admits a new entry if a frequency sketch has seen it
+    more often than the victim, so one-off entries cannot flush a hot set.
+    Lookups through contains and getFrequencyOf count as hits or misses. */
+public class EvictingBag<T> implements BagInterface<T> {
+
+	/** How the bag picks the entry to evict when it is full. */
+	public enum Policy {
+		LFU,
+		LRU,
+		TINY_LFU
+	}
+
+	/** Receives every entry the bag evicts to make room. */
+	public interface EvictionListener<T> {
+		/** Called after an entry has been evicted.
+		    @param entry The evicted entry.
+		    @param count The number of copies of the entry that were evicted. */
+		void onEviction(T entry, int count);
+	}
+
+	/** A distinct entry, its count, and its links in the recency list and in its frequency bucket. */
+	private static class Entry<T> {
+		final T data;
+		int count;
+		Entry<T> olderEntry, newerEntry;							// Recency list, least recent first
+		Entry<T> previousInBucket, nextInBucket;					// Entries sharing a frequency, oldest first
+		Bucket<T> bucket;
+
+		Entry(T data) {
+			this.data = data;
+		}
+	}
+
+	/** All entries with the same count. Buckets form a list in increasing frequency. */
+	private static class Bucket<T> {
+		final int frequency;
+		Bucket<T> lower, higher;
+		Entry<T> first, last;
+
+		Bucket(int frequency) {
+			this.frequency = frequency;
+		}
+	}
+
+	private final Map<T, Entry<T>> entries = new HashMap<T, Entry<T>>();
+	private final int maxDistinct;
+	private final int maxTotal;
+	private final Policy policy;
+	private final FrequencySketch sketch;							// Only used by TINY_LFU
+	private EvictionListener<T> listener;
+
+	private Entry<T> leastRecent, mostRecent;
+	private Bucket<T> lowestBucket;
+	private int numberOfEntries;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long rejectionCount;
+
+	/** Creates a bag bounded only by its number of distinct entries.
+	    @param maxDistinct The maximum number of distinct entries.
+	    @param policy How the bag chooses which entry to evict. */
+	public EvictingBag(int maxDistinct, Policy policy) {
+		this(maxDistinct, Integer.MAX_VALUE, policy);
+	}
+
+	/** Creates a bag bounded by both its number of distinct entries and its total number of entries.
+	    @param maxDistinct The maximum number of distinct entries.
+	    @param maxTotal The maximum total number of entries, counting duplicates.
+	    @param policy How the bag chooses which entry to evict. */
+	public EvictingBag(int maxDistinct, int maxTotal, Policy policy) {
+		if(maxDistinct <= 0 || maxTotal <= 0)
+			throw new IllegalStateException("Attempt to create a bag whose limits are not positive.");
+		if(policy == null)
+			throw new IllegalArgumentException("Attempt to create a bag without an eviction policy.");
+
+		this.maxDistinct = maxDistinct;
+		this.maxTotal = maxTotal;
+		this.policy = policy;
+		this.sketch = (policy == Policy.TINY_LFU) ? new FrequencySketch(Math.min(maxDistinct, maxTotal)) : null;
+	}
+
+	/** Sets the listener told about each eviction, replacing any earlier one.
+	    @param listener The listener, or null for none. */
+	public void setEvictionListener(EvictionListener<T> listener) {
+		this.listener = listener;
+	}
+
+	/** Gets the current number of entries in this bag.
+	   @return The integer number of entries currently in this bag. */
+	@Override
+	public int getCurrentSize() {
+		return numberOfEntries;
+	}
+
+	/** Gets the number of distinct entries in this bag.
+	   @return The number of distinct entries. */
+	public int getDistinctSize() {
+		return entries.size();
+	}
+
+	/** Sees whether this bag is empty.
+	   @return True if this bag is empty, or false if not. */
+	@Override
+	public boolean isEmpty() {
+		return numberOfEntries == 0;
+	}
+
+	/** Adds a new entry to this bag, evicting other entries if a limit would be exceeded.
+	   @param newEntry The object to be added as a new entry.
+	   @return True if the addition is successful, or false if the entry was not admitted. */
+	@Override
+	public boolean add(T newEntry) {
+		if(sketch != null)
+			sketch.increment(newEntry);
+
+		Entry<T> entry = entries.get(newEntry);
+		boolean isNew = (entry == null);
+
+		while((isNew && entries.size() >= maxDistinct) || numberOfEntries >= maxTotal) {
+			Entry<T> victim = selectVictim(entry);
+			if(victim == null)
+				return false;										// Only newEntry itself is left to evict
+			if(isNew && sketch != null && sketch.frequency(newEntry) <= sketch.frequency(victim.data)) {
+				rejectionCount++;									// The resident entry is at least as popular, so keep it
+				return false;
+			}
+			evict(victim);
+		}
+
+		if(isNew) {
+			entry = new Entry<T>(newEntry);
+			entries.put(newEntry, entry);
+			entry.count = 1;
+			insertIntoBucket(entry);
+		}
+		else {
+			entry.count++;
+			moveToBucket(entry, entry.bucket, true);
+			unlinkRecency(entry);
+		}
+		linkMostRecent(entry);
+		numberOfEntries++;
+		return true;
+	}
+
+	/** Picks the entry the policy would evict next, skipping the entry being added. */
+	private Entry<T> selectVictim(Entry<T> adding) {
+		if(policy == Policy.LFU) {
+			Bucket<T> bucket = lowestBucket;
+			Entry<T> candidate = (bucket == null) ? null : bucket.first;
+			if(candidate != null && candidate == adding)
+				candidate = (candidate.nextInBucket != null) ? candidate.nextInBucket
+						  : (bucket.higher != null) ? bucket.higher.first : null;
+			return candidate;
+		}
+
+		Entry<T> candidate = leastRecent;
+		if(candidate != null && candidate == adding)
+			candidate = candidate.newerEntry;
+		return candidate;
+	}
+
+	/** Removes every copy of victim and tells the listener. */
+	private void evict(Entry<T> victim) {
+		int count = victim.count;
+		removeCompletely(victim);
+		evictionCount++;
+		if(listener != null)
+			listener.onEviction(victim.data, count);
+	}
+
+	/** Removes one unspecified entry from this bag, if possible. The copy comes from the least recently used entry.
+	   @return Either the removed entry, if the removal was successful, or null. */
+	@Override
+	public T remove() {
+		if(isEmpty())
+			return null;
+		T result = leastRecent.data;
+		removeOne(leastRecent);
+		return result;
+	}
+
+	/** Removes one occurrence of a given entry from this bag, if possible.
+	   @param anEntry The entry to be removed.
+	   @return True if the removal was successful, or false if not. */
+	@Override
+	public boolean remove(T anEntry) {
+		Entry<T> entry = entries.get(anEntry);
+		if(entry == null)
+			return false;
+		removeOne(entry);
+		return true;
+	}
+
+	/** Removes one copy of an entry, dropping the entry when its count reaches zero. */
+	private void removeOne(Entry<T> entry) {
+		if(entry.count == 1) {
+			removeCompletely(entry);
+			return;
+		}
+		entry.count--;
+		moveToBucket(entry, entry.bucket, false);
+		numberOfEntries--;
+	}
+
+	/** Unlinks an entry with all its copies from every structure. */
+	private void removeCompletely(Entry<T> entry) {
+		entries.remove(entry.data);
+		unlinkRecency(entry);
+		Bucket<T> bucket = entry.bucket;
+		unlinkFromBucket(entry);
+		removeIfEmpty(bucket);
+		numberOfEntries -= entry.count;
+	}
+
+	/** Removes all entries from this bag. Removed entries are not reported as evictions. */
+	@Override
+	public void clear() {
+		entries.clear();
+		leastRecent = null;
+		mostRecent = null;
+		lowestBucket = null;
+		numberOfEntries = 0;
+	}
+
+	/** Counts the number of times a given entry appears in this bag. Counts as a hit or a miss.
+	   @param anEntry The entry to be counted.
+	   @return The number of times anEntry appears in this bag. */
+	@Override
+	public int getFrequencyOf(T anEntry) {
+		Entry<T> entry = lookUp(anEntry);
+		return (entry == null) ? 0 : entry.count;
+	}
+
+	/** Tests whether this bag contains a given entry. Counts as a hit or a miss.
+	   @param anEntry The entry to locate.
+	   @return True if this bag contains anEntry, or false otherwise. */
+	@Override
+	public boolean contains(T anEntry) {
+		return lookUp(anEntry) != null;
+	}
+
+	/** Finds an entry, records the hit or miss and marks the entry as most recently used. */
+	private Entry<T> lookUp(T anEntry) {
+		if(sketch != null)
+			sketch.increment(anEntry);
+
+		Entry<T> entry = entries.get(anEntry);
+		if(entry == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		unlinkRecency(entry);
+		linkMostRecent(entry);
+		return entry;
+	}
+
+	@Override
+	public T[] toArray() {
+		// The cast is safe because the new array contains null entries
+		@SuppressWarnings("unchecked")
+		T[] result = (T[]) new Object[numberOfEntries];				// Unchecked type casting
+
+		int index = 0;
+		for(Entry<T> entry = leastRecent; entry != null; entry = entry.newerEntry)
+			for(int i = 0; i < entry.count; i++)
+				result[index++] = entry.data;
+
+		return result;
+	}
+
+	/** Gets the number of lookups that found their entry.
+	   @return The hit count. */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/** Gets the number of lookups that did not find their entry.
+	   @return The miss count. */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/** Gets the fraction of lookups that found their entry.
+	   @return The hit rate, or 0 if there have been no lookups. */
+	public double getHitRate() {
+		long lookups = hitCount + missCount;
+		return (lookups == 0) ? 0.0 : (double) hitCount / lookups;
+	}
+
+	/** Gets the number of entries evicted to make room.
+	   @return The eviction count. */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/** Gets the number of additions refused by TINY_LFU admission.
+	   @return The rejection count. */
+	public long getRejectionCount() {
+		return rejectionCount;
+	}
+
+	/** Creates an empty bag with the same limits and policy as this one. */
+	private EvictingBag<T> newResultBag() {
+		return new EvictingBag<T>(maxDistinct, maxTotal, policy);
+	}
+
+	/** Counts the entries of another bag by value. */
+	private static <T> Map<T, Integer> countsOf(BagInterface<T> aBag) {
+		Map<T, Integer> counts = new HashMap<T, Integer>();
+		for(T entry : aBag.toArray())
+			counts.merge(entry, 1, Integer::sum);
+		return counts;
+	}
+
+	/** A new collection of entries created in a new bag after the contents of the first and second bag are combined.
+        The new bag has this bag's limits and policy, so the union may evict entries.
+        Note: The union does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items from the first and second bag. */
+	@Override
+	public BagInterface<T> union(BagInterface<T> otherBag) {
+		EvictingBag<T> unionBag = newResultBag();
+		for(T entry : this.toArray())
+			unionBag.add(entry);
+		for(T entry : otherBag.toArray())
+			unionBag.add(entry);
+		return unionBag;
+	}
+
+	/** A new collection of entries created in a new bag when ONLY the same items are from the first and second bag.
+        Note: The intersection does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items that are ONLY in the first and second bag. */
+	@Override
+	public BagInterface<T> intersection(BagInterface<T> otherBag) {
+		EvictingBag<T> intersectionBag = newResultBag();
+		Map<T, Integer> otherCounts = countsOf(otherBag);			// O(m) once instead of an O(n) search per entry
+
+		for(Entry<T> entry = leastRecent; entry != null; entry = entry.newerEntry) {
+			Integer otherCount = otherCounts.get(entry.data);
+			int common = (otherCount == null) ? 0 : Math.min(entry.count, otherCount);
+			for(int i = 0; i < common; i++)
+				intersectionBag.add(entry.data);
+		}
+		return intersectionBag;
+	}
+
+	/** A new collection of entries created in a new bag that is left over after removing those that also occur in the second bag.
+        Note: The difference does not affect the contents of the first and second bag.
+        @param otherBag The other second bag.
+        @return A new bag collection that contains all items that are left over after removing those that appear in the second bag. */
+	@Override
+	public BagInterface<T> difference(BagInterface<T> otherBag) {
+		EvictingBag<T> differenceBag = newResultBag();
+		Map<T, Integer> otherCounts = countsOf(otherBag);
+
+		for(Entry<T> entry = leastRecent; entry != null; entry = entry.newerEntry) {
+			Integer otherCount = otherCounts.get(entry.data);
+			int left = entry.count - ((otherCount == null) ? 0 : otherCount);
+			for(int i = 0; i < left; i++)
+				differenceBag.add(entry.data);
+		}
+		return differenceBag;
+	}
+
+	// Recency list maintenance
+
+	private void linkMostRecent(Entry<T> entry) {
+		entry.olderEntry = mostRecent;
+		entry.newerEntry = null;
+		if(mostRecent == null)
+			leastRecent = entry;
+		else
+			mostRecent.newerEntry = entry;
+		mostRecent = entry;
+	}
+
+	private void unlinkRecency(Entry<T> entry) {
+		if(entry.olderEntry == null)
+			leastRecent = entry.newerEntry;
+		else
+			entry.olderEntry.newerEntry = entry.newerEntry;
+		if(entry.newerEntry == null)
+			mostRecent = entry.olderEntry;
+		else
+			entry.newerEntry.olderEntry = entry.olderEntry;
+		entry.olderEntry = null;
+		entry.newerEntry = null;
+	}
+
+	// Frequency bucket maintenance. Each step touches only neighbouring buckets, so it is O(1)
+
+	/** Moves an entry whose count just changed by one from its old bucket to the adjacent one. */
+	private void moveToBucket(Entry<T> entry, Bucket<T> oldBucket, boolean increased) {
+		unlinkFromBucket(entry);
+		Bucket<T> neighbour = increased ? oldBucket.higher : oldBucket.lower;
+		if(neighbour != null && neighbour.frequency == entry.count)
+			appendToBucket(entry, neighbour);
+		else {
+			Bucket<T> bucket = new Bucket<T>(entry.count);
+			if(increased)
+				linkBucketAfter(bucket, oldBucket);
+			else
+				linkBucketAfter(bucket, oldBucket.lower);
+			appendToBucket(entry, bucket);
+		}
+		removeIfEmpty(oldBucket);
+	}
+
+	/** Places a new entry with count 1 into the lowest bucket, creating it if needed. */
+	private void insertIntoBucket(Entry<T> entry) {
+		if(lowestBucket == null || lowestBucket.frequency != 1) {
+			Bucket<T> bucket = new Bucket<T>(1);
+			linkBucketAfter(bucket, null);
+		}
+		appendToBucket(entry, lowestBucket);
+	}
+
+	/** Links bucket directly above previous, or as the lowest bucket if previous is null. */
+	private void linkBucketAfter(Bucket<T> bucket, Bucket<T> previous) {
+		bucket.lower = previous;
+		if(previous == null) {
+			bucket.higher = lowestBucket;
+			lowestBucket = bucket;
+		}
+		else {
+			bucket.higher = previous.higher;
+			previous.higher = bucket;
+		}
+		if(bucket.higher != null)
+			bucket.higher.lower = bucket;
+	}
+
+	private void appendToBucket(Entry<T> entry, Bucket<T> bucket) {
+		entry.bucket = bucket;
+		entry.previousInBucket = bucket.last;
+		entry.nextInBucket = null;
+		if(bucket.last == null)
+			bucket.first = entry;
+		else
+			bucket.last.nextInBucket = entry;
+		bucket.last = entry;
+	}
+
+	private void unlinkFromBucket(Entry<T> entry) {
+		Bucket<T> bucket = entry.bucket;
+		if(entry.previousInBucket == null)
+			bucket.first = entry.nextInBucket;
+		else
+			entry.previousInBucket.nextInBucket = entry.nextInBucket;
+		if(entry.nextInBucket == null)
+			bucket.last = entry.previousInBucket;
+		else
+			entry.nextInBucket.previousInBucket = entry.previousInBucket;
+		entry.previousInBucket = null;
+		entry.nextInBucket = null;
+		entry.bucket = null;
+	}
+
+	private void removeIfEmpty(Bucket<T> bucket) {
+		if(bucket.first != null)
+			return;
+		if(bucket.lower == null)
+			lowestBucket = bucket.higher;
+		else
+			bucket.lower.higher = bucket.higher;
+		if(bucket.higher != null)
+			bucket.higher.lower = bucket.lower;
+	}
+
+	/** A count-min sketch of 4-bit counters that estimates how often an entry has been seen.
+	    Sixteen counters are packed into each long, so eight counters per expected entry in each of
+	    the four rows cost 16 bytes per entry, and at most 512 KB for the widest sketch.
+	    All counters are halved periodically so old popularity fades. */
+	private static class FrequencySketch {
+		private static final int DEPTH = 4;
+		private static final int MAX_COUNT = 15;
+		private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+		private static final int COUNTERS_PER_ENTRY = 8;				// Keeps collisions rare enough that one-off entries look cold
+		private static final int MAX_WIDTH = 1 << 18;					// Counters per row
+		private static final long RESET_MASK = 0x7777777777777777L;		// Clears the bit each counter shifts into its neighbour
+
+		private final long[][] table;
+		private final int shift;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int expectedEntries) {
+			long wanted = Math.max(64L, Math.min((long) expectedEntries * COUNTERS_PER_ENTRY, MAX_WIDTH));
+			int width = Integer.highestOneBit((int) wanted - 1) << 1;		// Next power of two
+			table = new long[DEPTH][width / 16];
+			shift = Integer.numberOfLeadingZeros(width) + 1;
+			sampleSize = 10 * Math.min(width / COUNTERS_PER_ENTRY, expectedEntries);
+		}
+
+		/** Mixes every bit of the hash code before each row takes the top bits of its own product,
+		    so entries whose hash codes differ only in high bits, like consecutive Integers, still spread. */
+		private int indexOf(Object entry, int row) {
+			int hash = Objects.hashCode(entry);
+			hash ^= hash >>> 16;
+			hash *= 0x7FEB352D;
+			hash ^= hash >>> 15;
+			return (hash * SEEDS[row]) >>> shift;
+		}
+
+		/** Reads the counter at a row's index from the long that packs it. */
+		private int counterAt(int row, int index) {
+			return (int) (table[row][index >>> 4] >>> ((index & 15) << 2)) & MAX_COUNT;
+		}
+
+		void increment(Object entry) {
+			for(int row = 0; row < DEPTH; row++) {
+				int index = indexOf(entry, row);
+				if(counterAt(row, index) < MAX_COUNT)
+					table[row][index >>> 4] += 1L << ((index & 15) << 2);
+			}
+			if(++additions >= sampleSize)
+				age();
+		}
+
+		int frequency(Object entry) {
+			int min = MAX_COUNT;
+			for(int row = 0; row < DEPTH; row++)
+				min = Math.min(min, counterAt(row, indexOf(entry, row)));
+			return min;
+		}
+
+		private void age() {
+			for(long[] row : table)
+				for(int i = 0; i < row.length; i++)
+					row[i] = (row[i] >>> 1) & RESET_MASK;
+			additions /= 2;
+		}
+	}
+
+	/** The toString method overrides the superclass toString method. This version includes the contents of the bag.
+	    @return Literal concatenated string. */
+	public String toString() {
+		String myString;
+		myString = ("bag contains " + this.getCurrentSize() + " items(s):\n");
+
+		Object[] bagArray = this.toArray();
+
+		for(int i = 0; i < bagArray.length; i++)
+			myString += (bagArray[i] + " ");
+
+		myString += "\n";
+		return myString;
+	}
+}
@@ -0,0 +1,278 @@
+import java.util.Arrays;
+
+/** A class of bags of integers whose entries are stored unboxed in a resizeable int array.
+    Counting, searching, histograms and the sorted-run merges behind the set operations run as
+    SIMD loops through the incubating Vector API when the JVM is started with
+    --add-modules jdk.incubator.vector and vector/VectorIntKernels has been compiled; otherwise
+    the same loops run one element at a time with no boxing or equals calls. The set operations
+    sort copies of both bags and merge them, so they run in O(n log n) instead of O(n * m).
+    The bag cannot hold null entries. */
+public class IntArrayBag implements BagInterface<Integer> {
+	private static final IntKernels KERNELS = loadKernels();
+
+	private int[] bag;
+	private static final int DEFAULT_CAPACITY = 25;
+	private int numberOfEntries;
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;		// Largest array length most JVMs will allocate
+
+	/** No-argument constructor sets the DEFAULT_CAPACITY for the array bag. */
+	public IntArrayBag() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/** One-argument constructor must specify the array's initial length.
+	    @param desiredCapacity The initial capacity of the bag. */
+	public IntArrayBag(int desiredCapacity) {
+		if(desiredCapacity < 0 || desiredCapacity > MAX_CAPACITY)
+			throw new IllegalStateException("Attempt to create a bag whose capacity is negative or exceeds allowed maximum.");
+		bag = new int[desiredCapacity];
+		numberOfEntries = 0;
+	}
+
+	/** Creates a bag holding the given values.
+	    @param values The values to copy into the bag. */
+	public IntArrayBag(int[] values) {
+		bag = Arrays.copyOf(values, Math.max(values.length, DEFAULT_CAPACITY));
+		numberOfEntries = values.length;
+	}
+
+	/** Loads the Vector API kernels if their module is present, or falls back to the scalar loops.
+	    The vector class is only named as a string, so this class compiles and runs without the module. */
+	private static IntKernels loadKernels() {
+		if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return (IntKernels) Class.forName("VectorIntKernels").getDeclaredConstructor().newInstance();
+			}
+			catch(ReflectiveOperationException | LinkageError e) {
+				// Not compiled, or compiled for another JDK; fall back to the scalar loops
+			}
+		}
+		return new ScalarIntKernels();
+	}
+
+	/** Tells whether the bag's loops run on the Vector API.
+	    @return True if the vector kernels were loaded, or false if the scalar loops are used. */
+	public static boolean isVectorized() {
+		return !(KERNELS instanceof ScalarIntKernels);
+	}
+
+	/** Gets the current number of entries in this bag.
+	   @return The integer number of entries currently in this bag. */
+	@Override
+	public int getCurrentSize() {
+		return numberOfEntries;
+	}
+
+	/** Sees whether this bag is empty.
+	   @return True if this bag is empty, or false if not. */
+	@Override
+	public boolean isEmpty() {
+		return numberOfEntries == 0;
+	}
+
+	/** Adds a new entry to this bag.
+	   @param newEntry The object to be added as a new entry.
+	   @return True if the addition is successful, or false if newEntry is null. */
+	@Override
+	public boolean add(Integer newEntry) {
+		if(newEntry == null)
+			return false;
+		add(newEntry.intValue());
+		return true;
+	}
+
+	/** Adds a new value to this bag without boxing it.
+	   @param newValue The value to be added as a new entry. */
+	public void add(int newValue) {
+		if(numberOfEntries == bag.length)
+			ensureCapacity(numberOfEntries + 1);
+		bag[numberOfEntries++] = newValue;
+	}
+
+	/** Grows the array to hold at least minCapacity entries, doubling where possible. */
+	private void ensureCapacity(int minCapacity) {
+		if(minCapacity > MAX_CAPACITY || minCapacity < 0)
+			throw new IllegalStateException("Attempted to create a bag whose capacity exceeds allowed maximum of " + MAX_CAPACITY);
+		long doubled = Math.max(2L * bag.length, DEFAULT_CAPACITY);
+		int newLength = (int) Math.min(Math.max(doubled, minCapacity), MAX_CAPACITY);
+		bag = Arrays.copyOf(bag, newLength);								// O(n) because array elements have to be copied.
+	}
+
+	/** Removes one unspecified entry from this bag, if possible.
+	   @return Either the removed entry, if the removal was successful, or null. */
+	@Override
+	public Integer remove() {
+		if(isEmpty())
+			return null;
+		return bag[--numberOfEntries];
+	}
+
+	/** Removes one occurrence of a given entry from this bag, if possible.
+	   @param anEntry The entry to be removed.
+	   @return True if the removal was successful, or false if not. */
+	@Override
+	public boolean remove(Integer anEntry) {
+		return (anEntry != null) && remove(anEntry.intValue());
+	}
+
+	/** Removes one occurrence of a given value from this bag, if possible.
+	   @param aValue The value to be removed.
+	   @return True if the removal was successful, or false if not. */
+	public boolean remove(int aValue) {
+		int index = getIndexOf(aValue);
+		if(index < 0)
+			return false;
+		bag[index] = bag[--numberOfEntries];								// Swapping the last entry into the hole for efficiency
+		return true;
+	}
+
+	/** Locates a given value within this bag. Returns an index to the array
+	    containing the value, if located, or -1 otherwise. */
+	private int getIndexOf(int aValue) {
+		return KERNELS.indexOf(bag, numberOfEntries, aValue);
+	}
+
+	/** Removes all entries from this bag. */
+	@Override
+	public void clear() {
+		Arrays.fill(bag, 0, numberOfEntries, 0);							// Overwrite old values for security reasons
+		numberOfEntries = 0;
+	}
+
+	/** Counts the number of times a given entry appears in this bag.
+	   @param anEntry The entry to be counted.
+	   @return The number of times anEntry appears in this bag. */
+	@Override
+	public int getFrequencyOf(Integer anEntry) {
+		return (anEntry == null) ? 0 : getFrequencyOf(anEntry.intValue());
+	}
+
+	/** Counts the number of times a given value appears in this bag without boxing it.
+	   @param aValue The value to be counted.
+	   @return The number of times aValue appears in this bag. */
+	public int getFrequencyOf(int aValue) {
+		return KERNELS.count(bag, numberOfEntries, aValue);
+	}
+
+	/** Tests whether this bag contains a given entry.
+	   @param anEntry The entry to locate.
+	   @return True if this bag contains anEntry, or false otherwise. */
+	@Override
+	public boolean contains(Integer anEntry) {
+		return (anEntry != null) && contains(anEntry.intValue());
+	}
+
+	/** Tests whether this bag contains a given value without boxing it.
+	   @param aValue The value to locate.
+	   @return True if this bag contains aValue, or false otherwise. */
+	public boolean contains(int aValue) {
+		return getIndexOf(aValue) > -1;
+	}
+
+	/** Counts how many entries fall on each value of a range.
+	   @param low The smallest value counted.
+	   @param high The largest value counted.
+	   @return An array whose element i is the frequency of low + i. Entries outside the range are ignored. */
+	public int[] histogram(int low, int high) {
+		if(high < low || (long) high - low + 1 > MAX_CAPACITY)
+			throw new IllegalStateException("Attempt to build a histogram over an empty or oversized range.");
+
+		int[] counts = new int[high - low + 1];
+		KERNELS.histogram(bag, numberOfEntries, low, counts);
+		return counts;
+	}
+
+	@Override
+	public Integer[] toArray() {
+		Integer[] result = new Integer[numberOfEntries];
+		for(int i = 0; i < numberOfEntries; i++)
+			result[i] = bag[i];
+		return result;
+	}
+
+	/** Retrieves all values that are in this bag without boxing them.
+	   @return A newly allocated array of all the values in the bag. */
+	public int[] toIntArray() {
+		return Arrays.copyOf(bag, numberOfEntries);
+	}
+
+	/** Retrieves the values of another bag as a new int array, skipping null entries. */
+	private static int[] valuesOf(BagInterface<Integer> otherBag) {
+		if(otherBag instanceof IntArrayBag)
+			return ((IntArrayBag) otherBag).toIntArray();
+
+		Object[] entries = otherBag.toArray();							// Generic bags return Object[] at run time, so avoid a cast to Integer[]
+		int[] values = new int[entries.length];
+		int count = 0;
+		for(Object entry : entries)
+			if(entry != null)
+				values[count++] = (Integer) entry;
+		return Arrays.copyOf(values, count);
+	}
+
+	/** Merges two sorted runs, keeping each value as many times as it appears in both.
+	   @param first A sorted array.
+	   @param second A sorted array.
+	   @return A new sorted array holding the multiset intersection of the runs. */
+	public static int[] intersectSorted(int[] first, int[] second) {
+		return KERNELS.intersectSorted(first, second);
+	}
+
+	/** Merges two sorted runs, removing one copy of the first run's value for each copy in the second.
+	   @param first A sorted array.
+	   @param second A sorted array.
+	   @return A new sorted array holding the multiset difference first - second. */
+	public static int[] differenceSorted(int[] first, int[] second) {
+		return KERNELS.differenceSorted(first, second);
+	}
+
+	/** A new collection of entries created in a new bag after the contents of the first and second bag are combined.
+        Note: The union does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items from the first and second bag. */
+	@Override
+	public BagInterface<Integer> union(BagInterface<Integer> otherBag) {
+		int[] otherValues = valuesOf(otherBag);
+		int[] combined = Arrays.copyOf(bag, numberOfEntries + otherValues.length);
+		System.arraycopy(otherValues, 0, combined, numberOfEntries, otherValues.length);	// O(n + m) block copies
+		return new IntArrayBag(combined);
+	}
+
+	/** A new collection of entries created in a new bag when ONLY the same items are from the first and second bag.
+        Note: The intersection does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items that are ONLY in the first and second bag. */
+	@Override
+	public BagInterface<Integer> intersection(BagInterface<Integer> otherBag) {
+		int[] thisValues = toIntArray();
+		int[] otherValues = valuesOf(otherBag);
+		Arrays.sort(thisValues);											// O(n log n) sorts replace the O(n * m) contains/remove passes
+		Arrays.sort(otherValues);
+		return new IntArrayBag(intersectSorted(thisValues, otherValues));
+	}
+
+	/** A new collection of entries created in a new bag that is left over after removing those that also occur in the second bag.
+        Note: The difference does not affect the contents of the first and second bag.
+        @param otherBag The other second bag.
+        @return A new bag collection that contains all items that are left over after removing those that appear in the second bag. */
+	@Override
+	public BagInterface<Integer> difference(BagInterface<Integer> otherBag) {
+		int[] thisValues = toIntArray();
+		int[] otherValues = valuesOf(otherBag);
+		Arrays.sort(thisValues);
+		Arrays.sort(otherValues);
+		return new IntArrayBag(differenceSorted(thisValues, otherValues));
+	}
+
+	/** The toString method overrides the superclass toString method. This version includes the contents of the bag.
+	    @return Literal concatenated string. */
+	public String toString() {
+		StringBuilder myString = new StringBuilder("bag contains " + this.getCurrentSize() + " items(s):\n");
+
+		for(int i = 0; i < numberOfEntries; i++)
+			myString.append(bag[i]).append(' ');
+
+		myString.append('\n');
+		return myString.toString();
+	}
+}
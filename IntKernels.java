@@ -0,0 +1,19 @@
+/** The loops IntArrayBag runs over packed int arrays. ScalarIntKernels is always available;
+    vector/VectorIntKernels implements the same loops with the incubating Vector API and is
+    loaded instead when the jdk.incubator.vector module is present at run time. */
+interface IntKernels {
+	/** Finds the first index in values[0, size) that holds value, or -1 if there is none. */
+	int indexOf(int[] values, int size, int value);
+
+	/** Counts how many of values[0, size) equal value. */
+	int count(int[] values, int size, int value);
+
+	/** Adds one to counts[v - low] for each v in values[0, size) with low <= v < low + counts.length. */
+	void histogram(int[] values, int size, int low, int[] counts);
+
+	/** Merges two sorted runs, keeping each value as many times as it appears in both. */
+	int[] intersectSorted(int[] first, int[] second);
+
+	/** Merges two sorted runs, removing one copy of the first run's value for each copy in the second. */
+	int[] differenceSorted(int[] first, int[] second);
+}
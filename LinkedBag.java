@@ -193,7 +193,7 @@ public class LinkedBag<T> implements BagInterface<T> {
 		Node<T> currentNode = otherTempBag.firstNode;
 		
 		int i = 0;
-		while((i < unionBag.getCurrentSize()) && (currentNode != null)) {
+		while((i < otherTempBag.getCurrentSize()) && (currentNode != null)) {
 			unionBag.add(currentNode.getData());						// Function will add item to the beginning of the chain O(1)
 			i++;
 			currentNode = currentNode.getNextNode();					// The currentNode will point to the next node of the chain
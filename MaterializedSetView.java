@@ -0,0 +1,249 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/** A read-only bag that always holds the union, intersection or difference of two observable bags.
+    The view counts the entries of both operands once when it is created, then listens to them
+    and updates its result in O(1) for each entry added or removed, so reading the view never
+    recomputes the set operation.
+    The result matches what the operands' own union, intersection and difference methods hold,
+    up to the order of the entries. */
+public class MaterializedSetView<T> implements BagInterface<T> {
+
+	/** The set operation the view maintains. */
+	public enum Operation {
+		UNION,
+		INTERSECTION,
+		DIFFERENCE
+	}
+
+	private final ObservableBag<T> firstBag;
+	private final ObservableBag<T> secondBag;
+	private final Operation operation;
+	private final Map<T, Integer> firstCounts = new HashMap<T, Integer>();
+	private final Map<T, Integer> secondCounts = new HashMap<T, Integer>();
+	private final Map<T, Integer> resultCounts = new HashMap<T, Integer>();
+	private int numberOfEntries;										// Total of resultCounts
+	private final BagChangeListener<T> firstListener;
+	private final BagChangeListener<T> secondListener;
+
+	/** Creates a view of a set operation on two bags and starts following their changes.
+	    @param firstBag The first operand.
+	    @param secondBag The second operand.
+	    @param operation The set operation to maintain. */
+	public MaterializedSetView(ObservableBag<T> firstBag, ObservableBag<T> secondBag, Operation operation) {
+		if(firstBag == null || secondBag == null || operation == null)
+			throw new IllegalArgumentException("Attempt to create a view without both operands and an operation.");
+		this.firstBag = firstBag;
+		this.secondBag = secondBag;
+		this.operation = operation;
+
+		for(T entry : firstBag.toArray())
+			firstCounts.merge(entry, 1, Integer::sum);
+		for(T entry : secondBag.toArray())
+			secondCounts.merge(entry, 1, Integer::sum);
+		for(T entry : firstCounts.keySet())
+			refresh(entry, 0);
+		for(T entry : secondCounts.keySet())
+			if(!firstCounts.containsKey(entry))
+				refresh(entry, 0);
+
+		firstListener = new OperandListener(firstCounts);
+		secondListener = new OperandListener(secondCounts);
+		firstBag.addChangeListener(firstListener);
+		secondBag.addChangeListener(secondListener);
+	}
+
+	/** Updates an operand's counts as its bag changes and refreshes the one affected result entry. */
+	private class OperandListener implements BagChangeListener<T> {
+		private final Map<T, Integer> counts;
+
+		OperandListener(Map<T, Integer> counts) {
+			this.counts = counts;
+		}
+
+		@Override
+		public void entryAdded(T newEntry) {
+			counts.merge(newEntry, 1, Integer::sum);
+			refresh(newEntry, getOrZero(resultCounts, newEntry));
+		}
+
+		@Override
+		public void entryRemoved(T anEntry) {
+			Integer count = counts.get(anEntry);
+			if(count == null)
+				return;
+			if(count == 1)
+				counts.remove(anEntry);
+			else
+				counts.put(anEntry, count - 1);
+			refresh(anEntry, getOrZero(resultCounts, anEntry));
+		}
+	}
+
+	/** Recomputes the result count of one entry from the operand counts.
+	    @param anEntry The entry whose operand counts changed.
+	    @param oldCount The entry's previous result count. */
+	private void refresh(T anEntry, int oldCount) {
+		int first = getOrZero(firstCounts, anEntry);
+		int second = getOrZero(secondCounts, anEntry);
+		int newCount;
+		switch(operation) {
+			case UNION:
+				newCount = first + second;
+				break;
+			case INTERSECTION:
+				newCount = Math.min(first, second);
+				break;
+			default:
+				newCount = Math.max(first - second, 0);
+				break;
+		}
+
+		if(newCount == 0)
+			resultCounts.remove(anEntry);
+		else
+			resultCounts.put(anEntry, newCount);
+		numberOfEntries += newCount - oldCount;
+	}
+
+	private static <T> int getOrZero(Map<T, Integer> counts, T anEntry) {
+		Integer count = counts.get(anEntry);
+		return (count == null) ? 0 : count;
+	}
+
+	/** Stops following the operands. The view keeps its last result. */
+	public void close() {
+		firstBag.removeChangeListener(firstListener);
+		secondBag.removeChangeListener(secondListener);
+	}
+
+	/** Gets the current number of entries in this view.
+	   @return The integer number of entries currently in this view. */
+	@Override
+	public int getCurrentSize() {
+		return numberOfEntries;
+	}
+
+	/** Sees whether this view is empty.
+	   @return True if this view is empty, or false if not. */
+	@Override
+	public boolean isEmpty() {
+		return numberOfEntries == 0;
+	}
+
+	/** Not supported; change the operands instead.
+	   @throws UnsupportedOperationException Always. */
+	@Override
+	public boolean add(T newEntry) {
+		throw new UnsupportedOperationException("A materialized view changes only through its operands.");
+	}
+
+	/** Not supported; change the operands instead.
+	   @throws UnsupportedOperationException Always. */
+	@Override
+	public T remove() {
+		throw new UnsupportedOperationException("A materialized view changes only through its operands.");
+	}
+
+	/** Not supported; change the operands instead.
+	   @throws UnsupportedOperationException Always. */
+	@Override
+	public boolean remove(T anEntry) {
+		throw new UnsupportedOperationException("A materialized view changes only through its operands.");
+	}
+
+	/** Not supported; change the operands instead.
+	   @throws UnsupportedOperationException Always. */
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("A materialized view changes only through its operands.");
+	}
+
+	/** Counts the number of times a given entry appears in this view. O(1).
+	   @param anEntry The entry to be counted.
+	   @return The number of times anEntry appears in this view. */
+	@Override
+	public int getFrequencyOf(T anEntry) {
+		return getOrZero(resultCounts, anEntry);
+	}
+
+	/** Tests whether this view contains a given entry. O(1).
+	   @param anEntry The entry to locate.
+	   @return True if this view contains anEntry, or false otherwise. */
+	@Override
+	public boolean contains(T anEntry) {
+		return resultCounts.containsKey(anEntry);
+	}
+
+	@Override
+	public T[] toArray() {
+		// The cast is safe because the new array contains null entries
+		@SuppressWarnings("unchecked")
+		T[] result = (T[]) new Object[numberOfEntries];				// Unchecked type casting
+
+		int index = 0;
+		for(Map.Entry<T, Integer> entry : resultCounts.entrySet())
+			for(int i = entry.getValue(); i > 0; i--)
+				result[index++] = entry.getKey();
+
+		return result;
+	}
+
+	/** Copies the current result into a new LinkedBag. */
+	private LinkedBag<T> snapshot() {
+		LinkedBag<T> copy = new LinkedBag<T>();
+		for(T entry : toArray())
+			copy.add(entry);
+		return copy;
+	}
+
+	/** Copies any bag into a new LinkedBag, which LinkedBag's set operations require. */
+	private static <T> LinkedBag<T> linkedCopyOf(BagInterface<T> aBag) {
+		LinkedBag<T> copy = new LinkedBag<T>();
+		for(T entry : aBag.toArray())
+			copy.add(entry);
+		return copy;
+	}
+
+	/** A new collection of entries created in a new bag after the contents of this view and the second bag are combined.
+        Note: The union does not affect the contents of this view or the second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items from this view and the second bag. */
+	@Override
+	public BagInterface<T> union(BagInterface<T> otherBag) {
+		return snapshot().union(linkedCopyOf(otherBag));
+	}
+
+	/** A new collection of entries created in a new bag when ONLY the same items are from this view and the second bag.
+        Note: The intersection does not affect the contents of this view or the second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items that are ONLY in this view and the second bag. */
+	@Override
+	public BagInterface<T> intersection(BagInterface<T> otherBag) {
+		return snapshot().intersection(linkedCopyOf(otherBag));
+	}
+
+	/** A new collection of entries created in a new bag that is left over after removing those that also occur in the second bag.
+        Note: The difference does not affect the contents of this view or the second bag.
+        @param otherBag The other second bag.
+        @return A new bag collection that contains all items that are left over after removing those that appear in the second bag. */
+	@Override
+	public BagInterface<T> difference(BagInterface<T> otherBag) {
+		return snapshot().difference(linkedCopyOf(otherBag));
+	}
+
+	/** The toString method overrides the superclass toString method. This version includes the contents of the view.
+	    @return Literal concatenated string. */
+	public String toString() {
+		String myString;
+		myString = ("bag contains " + this.getCurrentSize() + " items(s):\n");
+
+		Object[] bagArray = this.toArray();
+
+		for(int i = 0; i < bagArray.length; i++)
+			myString += (bagArray[i] + " ");
+
+		myString += "\n";
+		return myString;
+	}
+}
@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/** A bag that wraps another bag and tells its listeners about every entry added or removed.
+    The wrapped bag must only be changed through this bag, or listeners will miss changes.
+    An EvictingBag also drops entries by itself inside add; those evictions are reported to the
+    listeners as one removal per evicted copy, before the addition that caused them.
+    Set operations are delegated to the wrapped bag. */
+public class ObservableBag<T> implements BagInterface<T> {
+	private final BagInterface<T> bag;
+	private final List<BagChangeListener<T>> listeners = new ArrayList<BagChangeListener<T>>();
+	
+	/** Creates an observable bag around an existing bag.
+	    @param bag The bag that holds the entries. If it is an EvictingBag, this bag becomes its eviction
+	               listener, replacing any earlier one; replacing it later would hide evictions again. */
+	public ObservableBag(BagInterface<T> bag) {
+		if(bag == null)
+			throw new IllegalArgumentException("Attempt to observe a null bag.");
+		this.bag = bag;
+		if(bag instanceof EvictingBag)
+			((EvictingBag<T>) bag).setEvictionListener(this::entriesEvicted);
+	}
+	
+	/** Tells the listeners about every copy of an entry the wrapped EvictingBag evicted. */
+	private void entriesEvicted(T entry, int count) {
+		for(int i = 0; i < count; i++)
+			for(BagChangeListener<T> listener : listeners)
+				listener.entryRemoved(entry);
+	}
+	
+	/** Registers a listener for every later change.
+	    @param listener The listener to add. */
+	public void addChangeListener(BagChangeListener<T> listener) {
+		listeners.add(listener);
+	}
+	
+	/** Unregisters a listener.
+	    @param listener The listener to remove.
+	    @return True if the listener was registered, or false if not. */
+	public boolean removeChangeListener(BagChangeListener<T> listener) {
+		return listeners.remove(listener);
+	}
+	
+	/** Gets the current number of entries in this bag.
+	   @return The integer number of entries currently in this bag. */
+	@Override
+	public int getCurrentSize() {
+		return bag.getCurrentSize();
+	}
+
+	/** Sees whether this bag is empty.
+	   @return True if this bag is empty, or false if not. */
+	@Override
+	public boolean isEmpty() {
+		return bag.isEmpty();
+	}
+
+	/** Adds a new entry to this bag and tells the listeners if it was added.
+	   @param newEntry The object to be added as a new entry.
+	   @return True if the addition is successful, or false if not. */
+	@Override
+	public boolean add(T newEntry) {
+		boolean result = bag.add(newEntry);
+		if(result)
+			for(BagChangeListener<T> listener : listeners)
+				listener.entryAdded(newEntry);
+		return result;
+	}
+
+	/** Removes one unspecified entry from this bag, if possible, and tells the listeners.
+	   @return Either the removed entry, if the removal was successful, or null. */
+	@Override
+	public T remove() {
+		if(bag.isEmpty())
+			return null;
+		T result = bag.remove();
+		for(BagChangeListener<T> listener : listeners)
+			listener.entryRemoved(result);
+		return result;
+	}
+
+	/** Removes one occurrence of a given entry from this bag, if possible, and tells the listeners.
+	   @param anEntry The entry to be removed.
+	   @return True if the removal was successful, or false if not. */
+	@Override
+	public boolean remove(T anEntry) {
+		boolean result = bag.remove(anEntry);
+		if(result)
+			for(BagChangeListener<T> listener : listeners)
+				listener.entryRemoved(anEntry);
+		return result;
+	}
+
+	/** Removes all entries from this bag, telling the listeners about each one. */
+	@Override
+	public void clear() {
+		while(!isEmpty())
+			remove();
+	}
+
+	/** Counts the number of times a given entry appears in this bag.
+	   @param anEntry The entry to be counted.
+	   @return The number of times anEntry appears in this bag. */
+	@Override
+	public int getFrequencyOf(T anEntry) {
+		return bag.getFrequencyOf(anEntry);
+	}
+
+	/** Tests whether this bag contains a given entry.
+	   @param anEntry The entry to locate.
+	   @return True if this bag contains anEntry, or false otherwise. */
+	@Override
+	public boolean contains(T anEntry) {
+		return bag.contains(anEntry);
+	}
+
+	@Override
+	public T[] toArray() {
+		return bag.toArray();
+	}
+	
+	/** Returns the wrapped bag of an ObservableBag so implementations that expect their own class still work. */
+	private static <T> BagInterface<T> unwrap(BagInterface<T> aBag) {
+		return (aBag instanceof ObservableBag) ? ((ObservableBag<T>) aBag).bag : aBag;
+	}
+
+	/** A new collection of entries created in a new bag after the contents of the first and second bag are combined.
+        Note: The union does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items from the first and second bag. */
+	@Override
+	public BagInterface<T> union(BagInterface<T> otherBag) {
+		return bag.union(unwrap(otherBag));
+	}
+
+	/** A new collection of entries created in a new bag when ONLY the same items are from the first and second bag.
+        Note: The intersection does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items that are ONLY in the first and second bag. */
+	@Override
+	public BagInterface<T> intersection(BagInterface<T> otherBag) {
+		return bag.intersection(unwrap(otherBag));
+	}
+
+	/** A new collection of entries created in a new bag that is left over after removing those that also occur in the second bag.
+        Note: The difference does not affect the contents of the first and second bag.
+        @param otherBag The other second bag.
+        @return A new bag collection that contains all items that are left over after removing those that appear in the second bag. */
+	@Override
+	public BagInterface<T> difference(BagInterface<T> otherBag) {
+		return bag.difference(unwrap(otherBag));
+	}
+	
+	/** The toString method overrides the superclass toString method. This version includes the contents of the bag.
+	    @return Literal concatenated string. */
+	public String toString() {
+		return bag.toString();
+	}
+}
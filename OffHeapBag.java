@@ -0,0 +1,471 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A class of bags whose entries are stored as fixed-width records in native memory, outside the
+    Java heap, so the garbage collector never traces them no matter how large the bag grows.
+    A Layout converts an entry to and from its record. Two entries are equal in this bag when
+    their records hold the same bytes, so a layout must encode equal entries identically.
+    Records are kept in direct buffers of up to 64 MB each. Direct buffers count against the JVM's
+    -XX:MaxDirectMemorySize limit, which defaults to the maximum heap size (-Xmx), so a bag larger
+    than the heap needs that flag raised; when the limit is reached, add throws IllegalStateException.
+    Call close when the bag is no longer needed: it frees the native memory at once, where the JVM
+    allows it, and the bag cannot be used afterwards.
+    An OffHeapBag is not thread-safe, not even for lookups: contains, getFrequencyOf and remove
+    write the entry they look for into one scratch record the bag shares between calls, so two
+    threads looking up at once can get wrong answers. A bag shared between threads needs every
+    call, including close, guarded by the same lock. */
+public class OffHeapBag<T> implements BagInterface<T>, AutoCloseable {
+
+	/** Converts entries to and from fixed-width records.
+	    Implementations must use absolute get and put methods at the given offset, and must not keep
+	    the buffer, or any view of it, after the call returns: the bag frees a buffer's native memory
+	    when it moves the records to a larger buffer and when it is closed, and a view shares that memory. */
+	public interface Layout<T> {
+		/** Gets the width of one record.
+		    @return The number of bytes in each record. */
+		int byteSize();
+
+		/** Writes an entry as a record.
+		    @param buffer The buffer that holds the record.
+		    @param offset The position of the record's first byte.
+		    @param entry The entry to write. Never null. */
+		void write(ByteBuffer buffer, int offset, T entry);
+
+		/** Reads the entry stored in a record.
+		    @param buffer The buffer that holds the record.
+		    @param offset The position of the record's first byte.
+		    @return The entry. */
+		T read(ByteBuffer buffer, int offset);
+	}
+
+	/** Stores Integer entries as 4-byte records. */
+	public static final Layout<Integer> INTS = new Layout<Integer>() {
+		public int byteSize() { return Integer.BYTES; }
+		public void write(ByteBuffer buffer, int offset, Integer entry) { buffer.putInt(offset, entry); }
+		public Integer read(ByteBuffer buffer, int offset) { return buffer.getInt(offset); }
+	};
+
+	/** Stores Long entries as 8-byte records. */
+	public static final Layout<Long> LONGS = new Layout<Long>() {
+		public int byteSize() { return Long.BYTES; }
+		public void write(ByteBuffer buffer, int offset, Long entry) { buffer.putLong(offset, entry); }
+		public Long read(ByteBuffer buffer, int offset) { return buffer.getLong(offset); }
+	};
+
+	/** Stores Double entries as 8-byte records. Equality is by bit pattern, as in Double.equals. */
+	public static final Layout<Double> DOUBLES = new Layout<Double>() {
+		public int byteSize() { return Double.BYTES; }
+		public void write(ByteBuffer buffer, int offset, Double entry) { buffer.putLong(offset, Double.doubleToLongBits(entry)); }
+		public Double read(ByteBuffer buffer, int offset) { return Double.longBitsToDouble(buffer.getLong(offset)); }
+	};
+
+	private static final int MAX_CHUNK_BYTES = 1 << 26;				// 64 MB per direct buffer
+	private static final int INITIAL_CHUNK_RECORDS = 64;			// The last chunk starts small and doubles up to full size
+
+	// Unsafe.invokeCleaner frees a direct buffer immediately instead of when the garbage collector finds it.
+	// It is looked up reflectively so the bag still works, freeing memory later, on a JVM without it.
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		}
+		catch(ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final Layout<T> layout;
+	private final int recordSize;
+	private final int recordsPerChunk;
+	private List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private final ByteBuffer probe;									// Scratch record for the entry being searched for; shared by every lookup
+	private int numberOfEntries;
+	private boolean closed = false;
+
+	/** Creates an empty bag whose entries are stored with the given layout.
+	    @param layout How entries are converted to and from records. */
+	public OffHeapBag(Layout<T> layout) {
+		if(layout == null)
+			throw new IllegalArgumentException("Attempt to create a bag without a record layout.");
+		if(layout.byteSize() <= 0 || layout.byteSize() > MAX_CHUNK_BYTES)
+			throw new IllegalStateException("Attempt to create a bag whose record size is not between 1 and " + MAX_CHUNK_BYTES + " bytes.");
+
+		this.layout = layout;
+		this.recordSize = layout.byteSize();
+		this.recordsPerChunk = MAX_CHUNK_BYTES / recordSize;
+		this.probe = allocate(recordSize);
+		numberOfEntries = 0;
+	}
+
+	private static ByteBuffer allocate(int bytes) {
+		try {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+		catch(OutOfMemoryError e) {
+			throw new IllegalStateException("Out of direct memory for an OffHeapBag; raise -XX:MaxDirectMemorySize.", e);
+		}
+	}
+
+	/** Returns a buffer's native memory now if the JVM allows it. The buffer must not be used again. */
+	private static void free(ByteBuffer buffer) {
+		if(INVOKE_CLEANER == null)
+			return;													// Freed when the buffer is garbage collected
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		}
+		catch(ReflectiveOperationException e) {
+			// Freed when the buffer is garbage collected
+		}
+	}
+
+	/** Throws an exception if this bag has been closed. */
+	private void checkOpen() {
+		if(closed)
+			throw new IllegalStateException("OffHeapBag has been closed.");
+	}
+
+	/** Releases the native memory of this bag. On JVMs that expose a direct buffer's cleaner, as
+	    JDK 9 and later do, the memory is freed before close returns; otherwise it is freed when the
+	    garbage collector finds the dropped buffers. Closing twice has no effect. */
+	@Override
+	public void close() {
+		if(closed)
+			return;
+		closed = true;
+		for(ByteBuffer chunk : chunks)
+			free(chunk);
+		free(probe);
+		chunks = null;
+		numberOfEntries = 0;
+	}
+
+	/** Gets the number of bytes of native memory reserved for records.
+	   @return The reserved byte count. */
+	public long getReservedBytes() {
+		checkOpen();
+		long total = 0;
+		for(ByteBuffer chunk : chunks)
+			total += chunk.capacity();
+		return total;
+	}
+
+	/** Gets the current number of entries in this bag.
+	   @return The integer number of entries currently in this bag. */
+	@Override
+	public int getCurrentSize() {
+		checkOpen();
+		return numberOfEntries;
+	}
+
+	/** Sees whether this bag is empty.
+	   @return True if this bag is empty, or false if not. */
+	@Override
+	public boolean isEmpty() {
+		checkOpen();
+		return numberOfEntries == 0;
+	}
+
+	/** Adds a new entry to this bag.
+	   @param newEntry The object to be added as a new entry.
+	   @return True if the addition is successful, or false if newEntry is null. */
+	@Override
+	public boolean add(T newEntry) {
+		checkOpen();
+		if(newEntry == null)
+			return false;
+		if(numberOfEntries == Integer.MAX_VALUE)
+			throw new IllegalStateException("Attempted to add more than " + Integer.MAX_VALUE + " entries to a bag.");
+
+		ensureRoomFor(numberOfEntries);
+		layout.write(chunkOf(numberOfEntries), offsetOf(numberOfEntries), newEntry);
+		numberOfEntries++;
+		return true;
+	}
+
+	/** Copies the record at sourceIndex of another bag with the same layout to the end of this bag. */
+	private void appendRecord(OffHeapBag<T> source, int sourceIndex) {
+		ensureRoomFor(numberOfEntries);
+		copyRecord(source.chunkOf(sourceIndex), source.offsetOf(sourceIndex), chunkOf(numberOfEntries), offsetOf(numberOfEntries));
+		numberOfEntries++;
+	}
+
+	/** Makes sure the chunk that holds index exists and is large enough. */
+	private void ensureRoomFor(int index) {
+		int chunkIndex = index / recordsPerChunk;
+		int neededBytes = (index % recordsPerChunk + 1) * recordSize;
+
+		if(chunkIndex == chunks.size()) {
+			chunks.add(allocate(Math.min(INITIAL_CHUNK_RECORDS, recordsPerChunk) * recordSize));
+			return;
+		}
+
+		ByteBuffer chunk = chunks.get(chunkIndex);
+		if(chunk.capacity() < neededBytes) {
+			ByteBuffer larger = allocate(Math.min(2 * chunk.capacity(), recordsPerChunk * recordSize));
+			larger.put(chunk.duplicate().clear());						// O(chunk size) native copy; full chunks are never copied again
+			chunks.set(chunkIndex, larger);
+			free(chunk);												// Safe only because layouts never keep a buffer
+		}
+	}
+
+	private ByteBuffer chunkOf(int index) {
+		return chunks.get(index / recordsPerChunk);
+	}
+
+	private int offsetOf(int index) {
+		return (index % recordsPerChunk) * recordSize;
+	}
+
+	private void copyRecord(ByteBuffer from, int fromOffset, ByteBuffer to, int toOffset) {
+		for(int i = 0; i < recordSize; i++)
+			to.put(toOffset + i, from.get(fromOffset + i));
+	}
+
+	/** Removes one unspecified entry from this bag, if possible.
+	   @return Either the removed entry, if the removal was successful, or null. */
+	@Override
+	public T remove() {
+		checkOpen();
+		T result = null;
+		if(!isEmpty()) {
+			result = layout.read(chunkOf(numberOfEntries - 1), offsetOf(numberOfEntries - 1));
+			numberOfEntries--;
+		}
+		return result;
+	}
+
+	/** Removes one occurrence of a given entry from this bag, if possible.
+	   @param anEntry The entry to be removed.
+	   @return True if the removal was successful, or false if not. */
+	@Override
+	public boolean remove(T anEntry) {
+		checkOpen();
+		int index = getIndexOf(anEntry);
+		if(index < 0)
+			return false;
+
+		int last = numberOfEntries - 1;
+		if(index != last)
+			copyRecord(chunkOf(last), offsetOf(last), chunkOf(index), offsetOf(index));	// Swapping the last record into the hole for efficiency
+		numberOfEntries--;
+		return true;
+	}
+
+	/** Writes an entry into the probe record. Returns false if the entry cannot be stored in this bag. */
+	private boolean setProbe(T anEntry) {
+		if(anEntry == null)
+			return false;
+		layout.write(probe, 0, anEntry);
+		return true;
+	}
+
+	/** Tests whether the record at an offset holds the same bytes as the probe. */
+	private boolean matchesProbe(ByteBuffer chunk, int offset) {
+		switch(recordSize) {
+			case Long.BYTES:
+				return chunk.getLong(offset) == probe.getLong(0);
+			case Integer.BYTES:
+				return chunk.getInt(offset) == probe.getInt(0);
+			default:
+				for(int i = 0; i < recordSize; i++)
+					if(chunk.get(offset + i) != probe.get(i))
+						return false;
+				return true;
+		}
+	}
+
+	/** Locates a given entry within this bag. Returns its index, if located, or -1 otherwise. */
+	// Precondition: checkOpen() has been called.
+	private int getIndexOf(T anEntry) {
+		if(!setProbe(anEntry))
+			return -1;
+
+		int index = 0;
+		for(ByteBuffer chunk : chunks) {
+			int inChunk = Math.min(numberOfEntries - index, recordsPerChunk);
+			for(int i = 0, offset = 0; i < inChunk; i++, offset += recordSize)
+				if(matchesProbe(chunk, offset))
+					return index + i;
+			index += inChunk;
+			if(index >= numberOfEntries)
+				break;
+		}
+		return -1;
+	}
+
+	/** Removes all entries from this bag and frees all but the first chunk. */
+	@Override
+	public void clear() {
+		checkOpen();
+		while(chunks.size() > 1)
+			free(chunks.remove(chunks.size() - 1));
+		numberOfEntries = 0;
+	}
+
+	/** Counts the number of times a given entry appears in this bag by comparing records in native memory.
+	   @param anEntry The entry to be counted.
+	   @return The number of times anEntry appears in this bag. */
+	@Override
+	public int getFrequencyOf(T anEntry) {
+		checkOpen();
+		if(!setProbe(anEntry))
+			return 0;
+
+		int counter = 0;
+		int index = 0;
+		for(ByteBuffer chunk : chunks) {
+			int inChunk = Math.min(numberOfEntries - index, recordsPerChunk);
+			for(int i = 0, offset = 0; i < inChunk; i++, offset += recordSize)
+				if(matchesProbe(chunk, offset))
+					counter++;
+			index += inChunk;
+			if(index >= numberOfEntries)
+				break;
+		}
+		return counter;
+	}
+
+	/** Tests whether this bag contains a given entry.
+	   @param anEntry The entry to locate.
+	   @return True if this bag contains anEntry, or false otherwise. */
+	@Override
+	public boolean contains(T anEntry) {
+		checkOpen();
+		return getIndexOf(anEntry) > -1;
+	}
+
+	/** Retrieves all entries that are in this bag. Every entry is read onto the heap, so avoid this for very large bags.
+	   @return A newly allocated array of all the entries in this bag. */
+	@Override
+	public T[] toArray() {
+		checkOpen();
+		// The cast is safe because the new array contains null entries
+		@SuppressWarnings("unchecked")
+		T[] result = (T[]) new Object[numberOfEntries];				// Unchecked type casting
+
+		for(int i = 0; i < numberOfEntries; i++)
+			result[i] = layout.read(chunkOf(i), offsetOf(i));
+
+		return result;
+	}
+
+	/** Creates an empty bag with the same layout as this one. */
+	private OffHeapBag<T> newResultBag() {
+		return new OffHeapBag<T>(layout);
+	}
+
+	/** Counts the entries of another bag by value. Only the other bag's distinct entries are held on the heap. */
+	private Map<T, Integer> countsOf(BagInterface<T> otherBag) {
+		Map<T, Integer> counts = new HashMap<T, Integer>();
+		if(otherBag instanceof OffHeapBag && ((OffHeapBag<T>) otherBag).layout == layout) {
+			OffHeapBag<T> other = (OffHeapBag<T>) otherBag;
+			other.checkOpen();
+			for(int i = 0; i < other.numberOfEntries; i++)
+				counts.merge(layout.read(other.chunkOf(i), other.offsetOf(i)), 1, Integer::sum);
+		}
+		else
+			for(T entry : otherBag.toArray())
+				counts.merge(entry, 1, Integer::sum);
+		return counts;
+	}
+
+	/** A new collection of entries created in a new bag after the contents of the first and second bag are combined.
+        Note: The union does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items from the first and second bag. */
+	@Override
+	public BagInterface<T> union(BagInterface<T> otherBag) {
+		checkOpen();
+		OffHeapBag<T> unionBag = newResultBag();
+		for(int i = 0; i < numberOfEntries; i++)
+			unionBag.appendRecord(this, i);								// Records are copied without creating heap objects
+
+		if(otherBag instanceof OffHeapBag && ((OffHeapBag<T>) otherBag).layout == layout) {
+			OffHeapBag<T> other = (OffHeapBag<T>) otherBag;
+			other.checkOpen();
+			for(int i = 0; i < other.numberOfEntries; i++)
+				unionBag.appendRecord(other, i);
+		}
+		else
+			for(T entry : otherBag.toArray())
+				unionBag.add(entry);
+
+		return unionBag;
+	}
+
+	/** A new collection of entries created in a new bag when ONLY the same items are from the first and second bag.
+        Note: The intersection does not affect the contents of the first and second bag.
+        @param otherBag The other second bag
+        @return A new bag collection that contains all the items that are ONLY in the first and second bag. */
+	@Override
+	public BagInterface<T> intersection(BagInterface<T> otherBag) {
+		checkOpen();
+		OffHeapBag<T> intersectionBag = newResultBag();
+		Map<T, Integer> otherCounts = countsOf(otherBag);			// O(m) once instead of an O(n) search per entry
+
+		for(int i = 0; i < numberOfEntries; i++) {
+			T entry = layout.read(chunkOf(i), offsetOf(i));
+			Integer count = otherCounts.get(entry);
+			if(count != null) {
+				intersectionBag.appendRecord(this, i);
+				if(count == 1)
+					otherCounts.remove(entry);
+				else
+					otherCounts.put(entry, count - 1);
+			}
+		}
+		return intersectionBag;
+	}
+
+	/** A new collection of entries created in a new bag that is left over after removing those that also occur in the second bag.
+        Note: The difference does not affect the contents of the first and second bag.
+        @param otherBag The other second bag.
+        @return A new bag collection that contains all items that are left over after removing those that appear in the second bag. */
+	@Override
+	public BagInterface<T> difference(BagInterface<T> otherBag) {
+		checkOpen();
+		OffHeapBag<T> differenceBag = newResultBag();
+		Map<T, Integer> otherCounts = countsOf(otherBag);
+
+		for(int i = 0; i < numberOfEntries; i++) {
+			T entry = layout.read(chunkOf(i), offsetOf(i));
+			Integer count = otherCounts.get(entry);
+			if(count == null)
+				differenceBag.appendRecord(this, i);
+			else if(count == 1)
+				otherCounts.remove(entry);								// Cancelled by the last occurrence in the second bag
+			else
+				otherCounts.put(entry, count - 1);
+		}
+		return differenceBag;
+	}
+
+	/** The toString method overrides the superclass toString method. This version includes the contents of the bag.
+	    @return Literal concatenated string. */
+	public String toString() {
+		checkOpen();
+		StringBuilder myString = new StringBuilder("bag contains " + this.getCurrentSize() + " items(s):\n");
+
+		for(int i = 0; i < numberOfEntries; i++)
+			myString.append(layout.read(chunkOf(i), offsetOf(i))).append(' ');
+
+		myString.append('\n');
+		return myString.toString();
+	}
+}
@@ -8,6 +8,7 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 	private int numberOfEntries;
 	private boolean integrityOK = false;
 	private static final int MAX_CAPACITY = 10000; 
+	private int[] hashes;													// Optional cached hash code of each entry, parallel to bag; null when disabled
 	
 	/** No-argument constructor sets the DEFAULT_CAPACITY for the array bag. */
 	public ResizeableArrayBag() {
@@ -17,12 +18,23 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 	/** One-argument constructor must specify the array's length, which is the bag's capacity.
 	    @param desiredCapacity The initial capacity of the bag. */
 	public ResizeableArrayBag(int desiredCapacity) {
+		this(desiredCapacity, false);
+	}
+	
+	/** Two-argument constructor can also keep each entry's hash code next to the array so scans
+	    compare ints first and call equals only when the hash codes match.
+	    Entries must not change their hash code while they are in the bag.
+	    @param desiredCapacity The initial capacity of the bag.
+	    @param cacheHashes True to cache the hash code of each entry. */
+	public ResizeableArrayBag(int desiredCapacity, boolean cacheHashes) {
 		// Avoid user or hacker from potentially crashing system. Enhances robustness of code
 		if(desiredCapacity <= MAX_CAPACITY)
 		{
 			@SuppressWarnings("unchecked")
 			T[] tempBag = (T[]) new Object[desiredCapacity]; 				// Unchecked type cast
 			bag = tempBag;
+			if(cacheHashes)
+				hashes = new int[desiredCapacity];
 			numberOfEntries = 0;
 			integrityOK = true;
 		}
@@ -67,6 +79,8 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 			doubleCapacity();
 		
 		bag[numberOfEntries] = newEntry;
+		if(hashes != null)
+			hashes[numberOfEntries] = hashOf(newEntry);
 		numberOfEntries++;
 		
 		return result;
@@ -75,9 +89,16 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 	/** Doubles the size of the array bag.
 	    Precondition: checkIntegrity() has been called. */
 	private void doubleCapacity() {
-		int newLength = 2 * bag.length;
-		checkCapacity(newLength);											// Check that MAX_CAPACITY has not been reached.
+		int newLength = Math.min(Math.max(2 * bag.length, DEFAULT_CAPACITY), MAX_CAPACITY);	// Stop at MAX_CAPACITY rather than doubling past it
+		checkCapacity(Math.max(newLength, bag.length + 1));					// Check that MAX_CAPACITY has not been reached.
 		bag = Arrays.copyOf(bag, newLength);								// O(n) because array elements have to be copied.
+		if(hashes != null)
+			hashes = Arrays.copyOf(hashes, newLength);
+	}
+	
+	/** Returns the hash code cached for an entry; null entries hash to 0. */
+	private static int hashOf(Object anEntry) {
+		return (anEntry == null) ? 0 : anEntry.hashCode();
 	}
 	
 	/** Throws an exception if the client requests a capacity that is too large. */
@@ -119,6 +140,8 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 			result = bag[givenIndex];										// Copy the data from givenIndex to the temporary "result" variable
 			bag[givenIndex] = bag[numberOfEntries - 1];						// Overwrite the data in givenIndex position with the last item
 			bag[numberOfEntries - 1] = null;								// For security reasons, nullify data in the last item's position
+			if(hashes != null)
+				hashes[givenIndex] = hashes[numberOfEntries - 1];			// Keep the cached hash with its entry
 			numberOfEntries--;
 		}
 		return result;
@@ -128,6 +151,9 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
         containing the entry, if located, or -1 otherwise. */
 	// Precondition: checkIntegrity() has been called.
 	private int getIndexOf(T anEntry) {
+		if(hashes != null)
+			return getIndexOfByHash(anEntry);
+		
 		int where = -1;
 		boolean found = false;	// Create flag to break from while loop
 		int index = 0;
@@ -144,6 +170,22 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 		return where;
 	}
 	
+	/** Locates a given entry by comparing cached hash codes first. Returns an index to the array
+	    containing the entry, if located, or -1 otherwise. */
+	// Precondition: checkIntegrity() has been called and hashes != null.
+	private int getIndexOfByHash(T anEntry) {
+		int hash = anEntry.hashCode();
+		int[] localHashes = hashes;											// Locals let the JIT keep the loop bounds in registers
+		Object[] localBag = bag;
+		int size = numberOfEntries;
+		
+		for(int index = 0; index < size; index++)
+			if(localHashes[index] == hash && anEntry.equals(localBag[index]))	// Only call equals on a hash match
+				return index;
+		
+		return -1;
+	}
+	
 	/** Removes all entries from this bag. */
 	@Override
 	public void clear() {
@@ -157,6 +199,9 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 	@Override
 	public int getFrequencyOf(T anEntry) {
 		checkIntegrity();
+		if(hashes != null)
+			return getFrequencyOfByHash(anEntry);
+		
 		int counter = 0;
 		
 		for(int i = 0; i < numberOfEntries; i++)
@@ -165,6 +210,22 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 		
 		return counter;
 	}
+	
+	/** Counts the occurrences of a given entry by comparing cached hash codes first. */
+	// Precondition: checkIntegrity() has been called and hashes != null.
+	private int getFrequencyOfByHash(T anEntry) {
+		int hash = anEntry.hashCode();
+		int[] localHashes = hashes;
+		Object[] localBag = bag;
+		int size = numberOfEntries;
+		int counter = 0;
+		
+		for(int i = 0; i < size; i++)
+			if(localHashes[i] == hash && anEntry.equals(localBag[i]))		// Only call equals on a hash match
+				counter++;
+		
+		return counter;
+	}
 
 	/** Tests whether this bag contains a given entry.
 	   @param anEntry The entry to locate.
@@ -188,6 +249,11 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 		return result;														// returns to the client the newly allocated array
 	}
 	
+	// Method to create the bag that holds a set operation's result, caching hashes if this bag does
+	private ResizeableArrayBag<T> newResultBag() {
+		return new ResizeableArrayBag<T>(DEFAULT_CAPACITY, hashes != null);
+	}
+	
 	// Method to add the contents of "this.bag" to the calling bag
 	private void fillBag(BagInterface<T> otherBag) {
 		int i = 0;
@@ -202,7 +268,7 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 	@Override
 	public BagInterface<T> union(BagInterface<T> otherBag) {
 		// Bag to hold final contents of the first and second bag
-		BagInterface<T> unionBag = new ResizeableArrayBag<T>();
+		BagInterface<T> unionBag = newResultBag();
 		
 		// Add the contents from the first bag to the unionBag
 		this.fillBag(unionBag);											// Function will add item to the end of the bag as long as the array is not full O(1) (Best), otherwise a new doubled-sized array will need to be created and items copied over O(n) (Worst)
@@ -225,10 +291,10 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 	@Override
 	public BagInterface<T> intersection(BagInterface<T> otherBag) {
 		// Bag to hold the contents that are ONLY in the first and second bag
-		BagInterface<T> intersectionBag = new ResizeableArrayBag<T>();
+		BagInterface<T> intersectionBag = newResultBag();
 		
 		// Bag to work with and hold contents from the bags
-		BagInterface<T> tempHoldingBag = new ResizeableArrayBag<T>();
+		BagInterface<T> tempHoldingBag = newResultBag();
 		
 		// Add the contents from the first bag to the tempHoldingBag
 		this.fillBag(tempHoldingBag);									// Function will add item to the end of the bag as long as the array is not full O(1) (Best), otherwise a new doubled-sized array will need to be created and items copied over O(n) (Worst)
@@ -258,7 +324,7 @@ public class ResizeableArrayBag<T> implements BagInterface<T> {
 	@Override
 	public BagInterface<T> difference(BagInterface<T> otherBag) {		
 		// Bag to hold the contents that are left over in the first bag after removing those that appear in the second bag
-		BagInterface<T> differenceBag = new ResizeableArrayBag<T>();
+		BagInterface<T> differenceBag = newResultBag();
 		
 		// Add the contents from the first bag to the differenceBag
 		this.fillBag(differenceBag);									// Function will add item to the end of the bag as long as the array is not full O(1) (Best), otherwise a new doubled-sized array will need to be created and items copied over O(n) (Worst)
@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/** Plain loops for IntArrayBag, used when the Vector API is not available. */
+class ScalarIntKernels implements IntKernels {
+
+	@Override
+	public int indexOf(int[] values, int size, int value) {
+		for(int index = 0; index < size; index++)
+			if(values[index] == value)
+				return index;
+		return -1;
+	}
+
+	@Override
+	public int count(int[] values, int size, int value) {
+		int counter = 0;
+		for(int i = 0; i < size; i++)
+			counter += (values[i] == value) ? 1 : 0;
+		return counter;
+	}
+
+	@Override
+	public void histogram(int[] values, int size, int low, int[] counts) {
+		for(int i = 0; i < size; i++) {
+			long offset = (long) values[i] - low;							// long, so values far below low cannot wrap into range
+			if(offset >= 0 && offset < counts.length)
+				counts[(int) offset]++;
+		}
+	}
+
+	@Override
+	public int[] intersectSorted(int[] first, int[] second) {
+		int[] result = new int[Math.min(first.length, second.length)];
+		int i = 0, j = 0, count = 0;
+		while(i < first.length && j < second.length) {
+			if(first[i] < second[j])
+				i++;
+			else if(first[i] > second[j])
+				j++;
+			else {
+				result[count++] = first[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	@Override
+	public int[] differenceSorted(int[] first, int[] second) {
+		int[] result = new int[first.length];
+		int i = 0, j = 0, count = 0;
+		while(i < first.length) {
+			if(j >= second.length || first[i] < second[j])
+				result[count++] = first[i++];
+			else if(first[i] > second[j])
+				j++;
+			else {
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+}
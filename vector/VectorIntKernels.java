@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** IntArrayBag's loops written with the incubating Vector API, so they use the widest SIMD
+    registers the host has (AVX2 or AVX-512 on x86). This file needs the incubator module to
+    compile and run, so it is kept apart from the other sources and built on top of them:
+
+        javac -d out *.java
+        javac --add-modules jdk.incubator.vector -cp out -d out vector/VectorIntKernels.java
+        java --add-modules jdk.incubator.vector -cp out ...
+
+    IntArrayBag loads it reflectively when the module is present and otherwise uses ScalarIntKernels.
+    Each loop handles whole vectors first and finishes the remaining elements one at a time. */
+class VectorIntKernels implements IntKernels {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final int SMALL_RANGE = 16;							// Histograms up to this wide keep one vector of counts per value
+
+	@Override
+	public int indexOf(int[] values, int size, int value) {
+		int bound = SPECIES.loopBound(size);
+		int i = 0;
+		for(; i < bound; i += LANES) {
+			VectorMask<Integer> equal = IntVector.fromArray(SPECIES, values, i).eq(value);
+			if(equal.anyTrue())
+				return i + equal.firstTrue();
+		}
+		for(; i < size; i++)
+			if(values[i] == value)
+				return i;
+		return -1;
+	}
+
+	@Override
+	public int count(int[] values, int size, int value) {
+		IntVector ones = IntVector.broadcast(SPECIES, 1);
+		IntVector counts = IntVector.zero(SPECIES);
+		int bound = SPECIES.loopBound(size);
+		int i = 0;
+		for(; i < bound; i += LANES)
+			counts = counts.add(ones, IntVector.fromArray(SPECIES, values, i).eq(value));	// One compare and masked add per vector
+		int counter = counts.reduceLanes(VectorOperators.ADD);
+		for(; i < size; i++)
+			counter += (values[i] == value) ? 1 : 0;
+		return counter;
+	}
+
+	/** Narrow ranges are counted with one compare and masked add per value and vector. Wider ranges
+	    use a vector range test to skip vectors with no value in range, and count the rest one at a time,
+	    because scattered increments cannot be done as a vector without conflicting lanes. */
+	@Override
+	public void histogram(int[] values, int size, int low, int[] counts) {
+		int range = counts.length;
+		int bound = SPECIES.loopBound(size);
+		int i = 0;
+		if(range <= SMALL_RANGE) {
+			IntVector ones = IntVector.broadcast(SPECIES, 1);
+			IntVector[] laneCounts = new IntVector[range];
+			Arrays.fill(laneCounts, IntVector.zero(SPECIES));
+			for(; i < bound; i += LANES) {
+				IntVector v = IntVector.fromArray(SPECIES, values, i);
+				for(int b = 0; b < range; b++)
+					laneCounts[b] = laneCounts[b].add(ones, v.eq(low + b));
+			}
+			for(int b = 0; b < range; b++)
+				counts[b] += laneCounts[b].reduceLanes(VectorOperators.ADD);
+		}
+		else {
+			// Offsets are compared unsigned, so values below low wrap to large offsets and fall out of range
+			int last = range - 1;
+			for(; i < bound; i += LANES) {
+				IntVector offsets = IntVector.fromArray(SPECIES, values, i).sub(low);
+				VectorMask<Integer> inRange = offsets.compare(VectorOperators.UNSIGNED_LE, last);
+				if(!inRange.anyTrue())
+					continue;
+				for(int lane = 0; lane < LANES; lane++)
+					if(inRange.laneIsSet(lane))
+						counts[offsets.lane(lane)]++;
+			}
+		}
+		for(; i < size; i++) {
+			long offset = (long) values[i] - low;
+			if(offset >= 0 && offset < range)
+				counts[(int) offset]++;
+		}
+	}
+
+	/** Advances from position from past every value of a sorted run that is less than limit. Whole
+	    vectors are skipped by looking at their last value alone; inside the last vector a single
+	    vector compare finds how many values are below the limit, instead of up to LANES scalar steps. */
+	private static int skipBelow(int[] run, int from, int limit) {
+		int length = run.length;
+		while(from + LANES <= length && run[from + LANES - 1] < limit)
+			from += LANES;
+		if(from + LANES <= length)
+			return from + IntVector.fromArray(SPECIES, run, from).lt(limit).trueCount();	// Sorted, so the lanes below limit are a prefix
+		while(from < length && run[from] < limit)
+			from++;
+		return from;
+	}
+
+	/** Merges like the scalar version, but whenever one run is behind it catches up with skipBelow
+	    instead of one element per step. */
+	@Override
+	public int[] intersectSorted(int[] first, int[] second) {
+		int[] result = new int[Math.min(first.length, second.length)];
+		int i = 0, j = 0, count = 0;
+		while(i < first.length && j < second.length) {
+			int a = first[i], b = second[j];
+			if(a < b)
+				i = skipBelow(first, i, b);
+			else if(a > b)
+				j = skipBelow(second, j, a);
+			else {
+				result[count++] = a;
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	@Override
+	public int[] differenceSorted(int[] first, int[] second) {
+		int[] result = new int[first.length];
+		int i = 0, j = 0, count = 0;
+		while(i < first.length) {
+			if(j >= second.length) {
+				System.arraycopy(first, i, result, count, first.length - i);	// Nothing left to remove
+				count += first.length - i;
+				break;
+			}
+			int a = first[i], b = second[j];
+			if(a < b) {
+				int next = skipBelow(first, i, b);						// Everything skipped is kept
+				System.arraycopy(first, i, result, count, next - i);
+				count += next - i;
+				i = next;
+			}
+			else if(a > b)
+				j = skipBelow(second, j, a);
+			else {
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+}